@@ -0,0 +1,20 @@
+package downloader;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Chạy JMH với GCProfiler bật sẵn để mọi kết quả có cả tốc độ cấp phát (gc.alloc.rate.norm).
+// Các tham số dòng lệnh của JMH vẫn dùng được, ví dụ: -p segments=4,8 SegmentDownloadBenchmark
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class);
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,53 @@
+package downloader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.*;
+
+// Các thao tác chạy sau mỗi lần đọc trong vòng copy, đo với nhiều luồng cùng lúc như khi tải phân đoạn:
+// - kiểm tra pause: ReentrantLock + runningFlag (cách cũ) so với PauseGate
+// - đếm byte đã tải: AtomicLong dùng chung (cách cũ) so với LongAdder
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class HotPathBenchmark {
+	private static final int READ_SIZE = 8 * 1024;
+
+	private final ReentrantLock pauseLock = new ReentrantLock();
+	private volatile boolean runningFlag = true;
+	private final PauseGate pauseGate = new PauseGate();
+	private final AtomicLong atomicBytes = new AtomicLong();
+	private final LongAdder adderBytes = new LongAdder();
+
+	@Benchmark
+	public boolean pauseCheckLock() {
+		pauseLock.lock();
+		try {
+			return runningFlag;
+		} finally {
+			pauseLock.unlock();
+		}
+	}
+
+	@Benchmark
+	public boolean pauseCheckGate() {
+		return pauseGate.await();
+	}
+
+	@Benchmark
+	public long countAtomicLong() {
+		return atomicBytes.addAndGet(READ_SIZE);
+	}
+
+	@Benchmark
+	public void countLongAdder() {
+		adderBytes.add(READ_SIZE);
+	}
+}
@@ -0,0 +1,62 @@
+package downloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpServer;
+
+// Server HTTP trong cùng tiến trình, trả một mảng byte cố định và hỗ trợ header Range
+class LoopbackServer implements AutoCloseable {
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final byte[] data;
+
+	LoopbackServer(int size) throws IOException {
+		this.data = new byte[size];
+		new Random(42).nextBytes(data);
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", exchange -> {
+			long start = 0;
+			long end = data.length - 1;
+			int status = 200;
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+			exchange.getResponseHeaders().add("ETag", "\"bench\"");
+			if (range != null && range.startsWith("bytes=")) {
+				String[] bounds = range.substring(6).split("-", -1);
+				start = Long.parseLong(bounds[0]);
+				if (!bounds[1].isEmpty()) {
+					end = Math.min(end, Long.parseLong(bounds[1]));
+				}
+				status = 206;
+				exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+			}
+			exchange.sendResponseHeaders(status, end - start + 1);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(data, (int) start, (int) (end - start + 1));
+			} catch (IOException e) {
+				// client đóng kết nối sớm (đoạn bị cắt bởi work stealing)
+			}
+		});
+		server.start();
+	}
+
+	String url(String fileName) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + fileName;
+	}
+
+	byte[] data() {
+		return data;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
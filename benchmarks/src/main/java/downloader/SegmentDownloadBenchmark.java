@@ -0,0 +1,68 @@
+package downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Tải trọn một file từ LoopbackServer qua AdvancedDownloader: đo toàn bộ đường tải phân đoạn
+// (kết nối, vòng copy trong downloadSegment, kiểm tra pause, đếm byte, ghi file, journal, force).
+// Mỗi lần gọi tải FILE_SIZE byte, số MB/s = FILE_SIZE / thời gian trung bình.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SegmentDownloadBenchmark {
+	private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+	@Param({ "1", "4", "8" })
+	public int segments;
+
+	// 0 = bộ đệm tự điều chỉnh theo tốc độ
+	@Param({ "0", "65536", "262144", "1048576" })
+	public int bufferSize;
+
+	@Param({ "httpclient", "urlconnection" })
+	public String transport;
+
+	@Param({ "FILE_CHANNEL", "MEMORY_MAPPED" })
+	public OutputMode output;
+
+	private LoopbackServer server;
+	private String url;
+	private File outputFile;
+
+	@Setup(Level.Trial)
+	public void startServer() throws IOException {
+		server = new LoopbackServer(FILE_SIZE);
+		url = server.url("bench-" + segments + "-" + bufferSize + "-" + transport + "-" + output + ".bin");
+		outputFile = new File("downloads", url.substring(url.lastIndexOf('/') + 1));
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() {
+		server.close();
+		outputFile.delete();
+	}
+
+	@Benchmark
+	public long download() throws IOException {
+		// xóa file cũ để lần tải sau không resume từ journal
+		outputFile.delete();
+		AdvancedDownloader downloader = new AdvancedDownloader();
+		downloader.setSegmentCount(segments);
+		downloader.setBufferSize(bufferSize);
+		downloader.setOutputMode(output);
+		downloader.setTransport("urlconnection".equals(transport) ? UrlConnectionTransport.getInstance()
+				: HttpClientTransport.getInstance());
+		downloader.startDownload(url);
+		long length = outputFile.length();
+		if (length != FILE_SIZE) {
+			throw new IOException("Incomplete download: " + length + " / " + FILE_SIZE);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,117 @@
+package downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// So sánh các cách ghi một đoạn xuống file, không có mạng:
+// - randomAccessFile: seek + write từng khối 8 KB (cách ghi cũ)
+// - fileChannel: FileChannelOutput, gom vào direct buffer rồi ghi theo vị trí
+// - mapped: MappedFileOutput, chép vào cửa sổ ánh xạ file (force được tính khi kết thúc mỗi lần gọi)
+// Mỗi lần gọi ghi SEGMENT_SIZE byte ở cuối file đã cấp phát sẵn.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WritePathBenchmark {
+	private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+	private static final int READ_SIZE = 8 * 1024;
+
+	@Param({ "randomAccessFile", "fileChannel", "mapped" })
+	public String writer;
+
+	@Param({ "65536", "262144", "1048576" })
+	public int bufferSize;
+
+	private byte[] data;
+	private File file;
+	private RandomAccessFile raf;
+	private DownloadOutput output;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new byte[SEGMENT_SIZE];
+		new Random(42).nextBytes(data);
+		file = File.createTempFile("write-path", ".bin");
+		if ("randomAccessFile".equals(writer)) {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(SEGMENT_SIZE);
+		} else {
+			output = "mapped".equals(writer) ? new MappedFileOutput(file, true, bufferSize)
+					: new FileChannelOutput(file, true, bufferSize);
+			output.setLength(SEGMENT_SIZE);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (raf != null) {
+			raf.close();
+		}
+		if (output != null) {
+			output.close();
+		}
+		file.delete();
+	}
+
+	@Benchmark
+	public long writeSegment() throws IOException {
+		if (raf != null) {
+			return writeRandomAccessFile();
+		}
+		return writeOutput();
+	}
+
+	private long writeRandomAccessFile() throws IOException {
+		// bufferSize không áp dụng: cách ghi cũ luôn ghi ngay từng khối đọc được
+		byte[] buffer = new byte[READ_SIZE];
+		long position = 0;
+		while (position < SEGMENT_SIZE) {
+			int n = Math.min(READ_SIZE, (int) (SEGMENT_SIZE - position));
+			System.arraycopy(data, (int) position, buffer, 0, n);
+			raf.seek(position);
+			raf.write(buffer, 0, n);
+			position += n;
+		}
+		// đẩy xuống đĩa như output.force() của writeOutput, để hai cách ghi được đo cùng điều kiện
+		raf.getFD().sync();
+		return position;
+	}
+
+	private long writeOutput() throws IOException {
+		ReadableByteChannel in = Channels.newChannel(new ChunkedInputStream(data, READ_SIZE));
+		long total = 0;
+		try (DownloadOutput.Sink sink = output.openSink(0)) {
+			int n;
+			while ((n = sink.read(in, SEGMENT_SIZE - total)) > 0) {
+				total += n;
+			}
+		}
+		output.force();
+		return total;
+	}
+
+	// Giống luồng mạng: mỗi lần read trả về tối đa chunk byte
+	private static class ChunkedInputStream extends java.io.ByteArrayInputStream {
+		private final int chunk;
+
+		ChunkedInputStream(byte[] data, int chunk) {
+			super(data);
+			this.chunk = chunk;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, chunk));
+		}
+	}
+}
@@ -1,77 +1,115 @@
-// executor: quản lí số luồng tối đa chạy cùng lúc = số luồng tải + luồng quan sát, áp dụng để hủy tất cả các luồng đang chạy
-// lock: cho phép nhiều luồng truy cập đến cùng một tài nguyên một cách an toàn
-// pauseCondition: cho phép điều khiển pause và resume các luồng
+// scheduler: bộ lập lịch dùng chung, chạy download, các luồng tải và luồng quan sát
+// tasks: các tác vụ của download này trên scheduler, áp dụng để hủy tất cả các luồng đang chạy
+// pauseGate: cho phép điều khiển pause, resume và cancel các luồng tải
 // start: startTime:thời gian bắt đầu tải, cờ bắt đầu tải 
-// runningFlag: cờ cho phép pause và resume
+// runningFlag: cờ đang tải (false khi tạm dừng hoặc đã dừng)
 // totalPauseTime: tổng thời gian tạm dừng
 // lastPauseTime: thời điểm tạm dừng cuối cùng
+// listener: nhận thông báo tiến trình (GUI hoặc dòng lệnh), engine không phụ thuộc JavaFX
 
 package downloader; 
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
 import java.text.DecimalFormat;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
-
-import com.turn.ttorrent.client.Client;
-import com.turn.ttorrent.client.SharedTorrent;
-
-import javafx.application.Platform;
-import javafx.scene.control.ProgressBar;
 
 import org.apache.tika.Tika;
 
 
 public class AdvancedDownloader {
-	private static final int NUM_SEGMENTS = 4;
+	// số luồng tải do HostConnectionController tự điều chỉnh theo host
+	private static final int AUTO_SEGMENTS = 0;
 	private static final DecimalFormat df = new DecimalFormat("#.##");
-	private static final int MAX_REDIRECTS = 5;
-	private static final int TORRENT_UPLOAD_RATE_LIMIT = 0;
-	private static final int TORRENT_DOWNLOAD_RATE_LIMIT = 0;
+	private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+	private static final long JOURNAL_FLUSH_INTERVAL = 2000;
+	private static final long MONITOR_INTERVAL = 3000;
+	private static final long TUNE_INTERVAL = 2000;
 	
-	private ProgressBar progressBar;   
-	private javafx.scene.control.TextArea statusArea;  
+	private final DownloadListener listener;
 	private volatile boolean runningFlag; 
     private volatile double totalPauseTime;
     private volatile double lastPauseTime;
     private volatile double startTime;
-	private ExecutorService executor;
-	private final ReentrantLock lock;
-    private final Condition pauseCondition;
+	private final DownloadScheduler scheduler;
+	private final List<Future<?>> tasks = new CopyOnWriteArrayList<>();
+	private volatile Future<?> job;
+	private volatile boolean queued;
+	private volatile SegmentManager segmentManager;
+	private volatile TorrentManager.Handle torrent;
+	private volatile long journalFlushInterval = JOURNAL_FLUSH_INTERVAL;
+	private volatile int segmentCount = AUTO_SEGMENTS;
+	private volatile HostConnectionController.Tuner tuner;
+	private volatile int maxRetries = RetryBudget.DEFAULT_RETRIES;
+	private final List<PipelineStage> pipelineStages = new CopyOnWriteArrayList<>();
+	private volatile File extractDirectory;
+	private volatile String pipelineDigest;
+	private volatile int bufferSize = FileChannelOutput.ADAPTIVE;
+	private volatile OutputMode outputMode = OutputMode.FILE_CHANNEL;
+	private volatile Checksum expectedChecksum;
+	private volatile PieceHashes pieceHashes;
+	private volatile boolean skipUnchanged = true;
+	private volatile ContentStore contentStore;
+	// SHA-256 của file đang tải, tính trong pipeline khi dùng contentStore
+	private volatile String contentDigest;
+	private volatile HttpTransport transport = HttpClientTransport.getInstance();
+	private volatile BandwidthLimiter.Share bandwidth;
+	private volatile long bandwidthLimit;
+	private volatile double bandwidthWeight = 1;
+	private final PauseGate pauseGate;
 	
 
-	public AdvancedDownloader(ProgressBar progressBar,
-			javafx.scene.control.TextArea statusArea) {
-		this.progressBar = progressBar;
-		this.statusArea = statusArea;
+	public AdvancedDownloader() {
+		this(DownloadListener.NONE);
+	}
+
+	public AdvancedDownloader(DownloadListener listener) {
+		this.listener = listener != null ? listener : DownloadListener.NONE;
 		this.runningFlag=false;
 		this.startTime=0;
-		this.executor =Executors.newFixedThreadPool(NUM_SEGMENTS+1);
-		this.lock= new ReentrantLock();  
-		this.pauseCondition = lock.newCondition(); 
+		this.scheduler = DownloadScheduler.getInstance();
+		this.pauseGate = new PauseGate();
+	}
+	
+	// Đưa download vào hàng đợi của scheduler, chạy khi còn chỗ
+	public Future<?> enqueueDownload(String input) {
+		this.queued = true;
+		this.job = scheduler.submitDownload(() -> startDownload(input));
+		return this.job;
 	}
 	
 	public void startDownload(String input) {  
 	    this.runningFlag = true; 
+	    this.pauseGate.reset();
 	    this.startTime= getCurrentTime();
 	    updateStatus("Start Downloading...");
+	    boolean success = false;
 	    try {
 	        if (input.endsWith(".torrent")) {
 	            downloadTorrent(input);
+	            success = true;
+	        } else if (MetalinkFile.isMetalink(input)) {
+	            downloadMetalink(input);
+	            success = true;
 	        } else {
-	            URL url = new URL(input);
+	            // một dòng có thể chứa nhiều URL mirror của cùng một file, cách nhau bởi khoảng trắng
+	            List<String> urls = Arrays.asList(input.trim().split("\\s+"));
+	            URL url = FtpTransport.toUrl(urls.get(0));
 	            String protocol = url.getProtocol().toLowerCase();
 	            switch (protocol) {
 	                case "http":
 	                case "https":
-	                    downloadDirectLink(input);
+	                case "ftp":
+	                case "ftps":
+	                    downloadDirectLink(urls, null);
+	                    success = true;
 	                    break;
 	                default:
 	                    updateStatus("Unsupported protocol: " + protocol);
@@ -82,13 +120,26 @@ public class AdvancedDownloader {
 	        e.printStackTrace();
 	    } finally {
 	        this.runningFlag = false;
-	        executor.shutdown();
+	        listener.downloadFinished(success);
 	    }
 	}
 	
 	public void cancelDownload() {
 	    try {
-	        executor.shutdownNow(); 
+	        pauseGate.cancel();
+	        SegmentManager manager = this.segmentManager;
+	        if (manager != null) {
+	            manager.fail(new CancellationException("Download cancelled"));
+	        }
+	        TorrentManager.Handle torrent = this.torrent;
+	        if (torrent != null) {
+	            torrent.cancel();
+	        }
+	        Future<?> job = this.job;
+	        if (job != null) {
+	            job.cancel(true);
+	        }
+	        cancelTasks();
 	    } catch (Exception e) { 
 	        e.printStackTrace(); 
 	    }
@@ -99,18 +150,14 @@ public class AdvancedDownloader {
 		 updateStatus("Paused...");
 		this.lastPauseTime=getCurrentTime();
 		this.runningFlag=false;
+		pauseGate.pause();
 	}
 	
 	public void resumeDownload() {
 		updateStatus("Resumed...");
 		this.totalPauseTime += getCurrentTime() - this.lastPauseTime;
 		this.runningFlag=true;
-		lock.lock();
-	    try {
-	        pauseCondition.signalAll();
-	    } finally {
-	        lock.unlock();
-	    }
+		pauseGate.resume();
 	}
 	
 	public boolean getRunningFlag() {
@@ -119,9 +166,17 @@ public class AdvancedDownloader {
 	
 	
 	public boolean getStartStatus() {
-		if (this.startTime==0) return 
+		if (this.startTime==0 && !this.queued) return 
 			false; else return true;
 	}
+	
+	private void cancelTasks() {
+		for (Future<?> task : tasks) {
+			task.cancel(true);
+		}
+		tasks.clear();
+	}
+	// Tải torrent qua TorrentManager, tiến trình được báo mỗi khi ttorrent xong một piece
 	private void downloadTorrent(String torrentPath) throws Exception {
 
 		File torrentFile = new File(torrentPath);
@@ -134,126 +189,541 @@ public class AdvancedDownloader {
 			downloadDir.mkdir();
 		}
 
-		SharedTorrent torrent = SharedTorrent.fromFile(torrentFile, downloadDir);
-		torrent.setMaxUploadRate(TORRENT_UPLOAD_RATE_LIMIT);
-		torrent.setMaxDownloadRate(TORRENT_DOWNLOAD_RATE_LIMIT);
-
-		Client client = new Client(InetAddress.getLocalHost(), torrent);
-
-		AtomicLong lastDownloaded = new AtomicLong(0);
+		TorrentManager.Handle handle = TorrentManager.getInstance().start(torrentFile, downloadDir,
+				(progress, state, speed, averageSpeed, peers) -> this.updateProgress(progress, state, speed,
+						averageSpeed, peers));
+		this.torrent = handle;
+		try {
+			handle.completion().get();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			this.torrent = null;
+		}
+		this.updateStatus("\nTorrent download completed!");
+	}
 
-		client.addObserver((o, arg) -> {
-			Client.ClientState state = client.getState();
-			float progress = client.getTorrent().getCompletion();
-			double currentTime = getCurrentTime();
-			double elapsedTime = (currentTime - this.startTime) / 1000.0;
-			long downloadedBytes = client.getTorrent().getDownloaded();
-			long deltaDownloaded = downloadedBytes - lastDownloaded.getAndSet(downloadedBytes);
-			double instantSpeed = deltaDownloaded / 1.0;
+	// Đọc file Metalink (RFC 5854) trên máy hoặc trên web rồi tải file đầu tiên trong đó từ các mirror
+	private void downloadMetalink(String input) throws IOException {
+	    MetalinkFile metalink;
+	    String lower = input.toLowerCase();
+	    if (lower.startsWith("http://") || lower.startsWith("https://")) {
+	        try (InputStream in = transport.openStream(new URL(input), 0, -1)) {
+	            metalink = MetalinkFile.parse(in);
+	        }
+	    } else {
+	        try (InputStream in = new FileInputStream(input)) {
+	            metalink = MetalinkFile.parse(in);
+	        }
+	    }
+	    updateStatus("Metalink: " + metalink.getName() + ", " + metalink.getUrls().size() + " mirrors");
+	    downloadDirectLink(metalink.getUrls(), metalink);
+	}
 
-			this.updateProgress(progress, state.toString(), instantSpeed, downloadedBytes / elapsedTime,
-					client.getPeers().size());
-		});
+	// Tải một file từ một hoặc nhiều mirror, metalink là null nếu không tải từ file Metalink
+	private void downloadDirectLink(List<String> fileUrls, MetalinkFile metalink) throws IOException {
+	    // checksum có thể gửi kèm URL: http://host/file.iso#sha256=<hex>
+	    Checksum checksum = this.expectedChecksum;
+	    if (checksum == null && metalink != null) {
+	        checksum = metalink.getChecksum();
+	    }
+	    // mọi mirror dùng chung một transport: chỉ tải qua FTP khi không có mirror HTTP nào
+	    boolean ftp = true;
+	    for (String fileUrl : fileUrls) {
+	        if (!FtpTransport.isFtp(FtpTransport.toUrl(fileUrl))) {
+	            ftp = false;
+	        }
+	    }
+	    List<URL> urls = new ArrayList<>();
+	    for (String fileUrl : fileUrls) {
+	        URL url = FtpTransport.toUrl(fileUrl);
+	        String protocol = url.getProtocol().toLowerCase();
+	        if (ftp ? !FtpTransport.isFtp(url) : !protocol.equals("http") && !protocol.equals("https")) {
+	            updateStatus("Mirror " + FtpTransport.redact(url) + " skipped: protocol " + protocol);
+	            continue;
+	        }
+	        if (checksum == null) {
+	            checksum = Checksum.fromFragment(url.getRef());
+	        }
+	        if (url.getRef() != null) {
+	            url = FtpTransport.toUrl(fileUrl.substring(0, fileUrl.indexOf('#')));
+	        }
+	        urls.add(url);
+	    }
+	    PieceHashes pieces = this.pieceHashes;
+	    if (pieces == null && metalink != null) {
+	        pieces = metalink.getPieces();
+	    }
+	    if (urls.isEmpty()) {
+	        throw new IOException("No supported mirror to download from");
+	    }
+	    // journal và metrics gắn với URL đầu tiên (không kèm mật khẩu FTP)
+	    String fileUrl = FtpTransport.redact(urls.get(0));
+	    HttpTransport transport = ftp ? FtpTransport.getInstance() : this.transport;
+	    // file đã tải trước đó, vẫn còn trên đĩa và không đổi trên server thì không tải lại
+	    MetadataCache cache = MetadataCache.getInstance();
+	    MetadataCache.Entry cached = skipUnchanged ? cache.get(fileUrl) : null;
+	    if (cached != null && cached.isPresent() && isUnchanged(transport, urls.get(0), cached)) {
+	        updateStatus("Not modified since last download, keeping " + cached.getPath());
+	        return;
+	    }
+	    // file cũ sắp bị ghi đè
+	    cache.remove(fileUrl);
+	    // chỉ lấy thông tin file, không tải nội dung. Khi không có checksum thì ETag là cách duy nhất
+	    // để biết các mirror có cùng nội dung hay không
+	    long probeStart = System.nanoTime();
+	    MirrorSet mirrors = MirrorSet.probe(transport, urls, metalink != null ? metalink.getSize() : -1,
+	            checksum == null, this::updateStatus);
+	    long probeMillis = (System.nanoTime() - probeStart) / 1_000_000 / urls.size();
+	    RemoteFile remote = mirrors.getReference();
+	    if (checksum == null) {
+	        checksum = remote.getChecksum();
+	    }
 
-		client.download();
+	    String fileName = metalink != null && !metalink.getName().isEmpty()
+	            ? sanitizeFileName(new File(metalink.getName()).getName())
+	            : getFileName(remote, fileUrl);
+	    File outputFile = new File("downloads", fileName);
+	    ContentStore store = this.contentStore;
+	    // cùng nội dung đã được tải trước đó (có thể từ URL khác) thì lấy từ kho
+	    if (store != null && checksum != null && store.materialize(checksum, outputFile)) {
+	        DownloadJournal.journalFileFor(outputFile).delete();
+	        updateStatus("Found " + checksum + " in content store, linked to " + outputFile.getPath());
+	        cache.put(fileUrl, new MetadataCache.Entry(outputFile.length(), remote.getEtag(), remote.getLastModified(),
+	                outputFile.getPath()));
+	        return;
+	    }
+	    // số liệu của download, xem qua JMX (downloader:type=Download)
+	    DownloadMetrics metrics = MetricsRegistry.getInstance().startDownload(fileUrl, fileName, remote.getSize());
+	    metrics.recordConnectLatency(probeMillis);
+	    if (mirrors.size() > 1) {
+	        metrics.setMirrors(mirrors);
+	        updateStatus("Downloading from " + mirrors.size() + " mirrors");
+	    }
+	    BandwidthLimiter.Share bandwidth = BandwidthLimiter.getGlobal().register(bandwidthWeight);
+	    bandwidth.setRate(bandwidthLimit);
+	    this.bandwidth = bandwidth;
+	    boolean success = false;
+	    this.contentDigest = null;
+	    try {
+	        downloadHttpFile(fileUrl, transport, mirrors, fileName, checksum, pieces, bandwidth, metrics);
+	        success = true;
+	        if (store != null) {
+	            addToStore(store, outputFile, checksum);
+	        }
+	        cache.put(fileUrl, new MetadataCache.Entry(outputFile.length(), remote.getEtag(), remote.getLastModified(),
+	                outputFile.getPath()));
+	    } finally {
+	        bandwidth.close();
+	        this.bandwidth = null;
+	        MetricsRegistry.getInstance().finishDownload(metrics, success);
+	    }
+	}
 
-		while (!client.getState().equals(Client.ClientState.SEEDING)) {
-			Thread.sleep(1000);
-		}
-		client.stop();
-		this.updateStatus("\nTorrent download completed!");
+	// Lưu file vừa tải xong vào kho. checksum (nếu có) đã được kiểm tra khi tải.
+	// Không lưu được (kho khác ổ đĩa...) thì file vẫn được giữ nguyên, download không bị coi là lỗi
+	private void addToStore(ContentStore store, File outputFile, Checksum checksum) {
+	    try {
+	        String hex = contentDigest;
+	        if (hex == null) {
+	            hex = checksum != null && checksum.getAlgorithm().equals(ContentStore.ALGORITHM)
+	                    ? checksum.getHex()
+	                    : Checksum.toHex(ContentStore.digest(outputFile.toPath(), ContentStore.ALGORITHM));
+	        }
+	        store.add(outputFile, hex, checksum);
+	        updateStatus("Stored in content store as " + ContentStore.ALGORITHM + "=" + hex);
+	    } catch (IOException | UnsupportedOperationException e) {
+	        updateStatus("Could not add " + outputFile.getName() + " to content store: " + e.getMessage());
+	    }
 	}
 
-	private void downloadDirectLink(String fileUrl) throws IOException {
-	    URL url = new URL(fileUrl);
-	    HttpURLConnection connection = openConnection(url);
+	// Probe có điều kiện theo ETag/Last-Modified của lần tải trước, lỗi mạng thì coi như đã đổi
+	private static boolean isUnchanged(HttpTransport transport, URL url, MetadataCache.Entry cached) {
+	    try {
+	        RemoteFile current = transport.probeIfModified(url, cached.getEtag(), cached.getLastModified());
+	        return current == null || cached.matches(current);
+	    } catch (IOException e) {
+	        return false;
+	    }
+	}
 
-	    boolean acceptRanges = connection.getHeaderField("Accept-Ranges") != null;
-	    long fileSize = connection.getContentLengthLong();
-	    String fileName = getFileName(connection, fileUrl);
+	private void downloadHttpFile(String fileUrl, HttpTransport transport, MirrorSet mirrors, String fileName,
+	        Checksum checksum, PieceHashes pieces, BandwidthLimiter.Share bandwidth, DownloadMetrics metrics)
+	        throws IOException {
+	    RemoteFile remote = mirrors.getReference();
+	    boolean acceptRanges = remote.acceptsRanges();
+	    long fileSize = remote.getSize();
 
 	    File outputFile = new File("downloads", fileName);
 	    if (!outputFile.getParentFile().exists()) {
 	        outputFile.getParentFile().mkdirs();
 	    }
 
-	    if (fileSize > 0) {
-	        try (RandomAccessFile raf = new RandomAccessFile(outputFile, "rw")) {
-	            raf.setLength(fileSize);
+	    if (acceptRanges && fileSize > 0) {
+	        String etag = remote.getEtag();
+	        String lastModified = remote.getLastModified();
+	        // Tải tiếp từ journal cũ nếu file trên server không đổi
+	        DownloadJournal journal = DownloadJournal.resume(outputFile, fileUrl, fileSize, etag, lastModified,
+	                journalFlushInterval);
+	        boolean resumed = journal != null;
+	        if (!resumed) {
+	            ContentStore.detach(outputFile);
+	            journal = new DownloadJournal(outputFile, fileUrl, fileSize, etag, lastModified, journalFlushInterval);
+	        }
+	        // Mọi luồng tải ghi chung một file
+	        try (DownloadOutput output = openOutput(outputFile)) {
+	            try {
+	                output.setLength(fileSize);
+	            } catch (IOException e) {
+	                updateStatus("Error setting file length: " + e.getMessage());
+	                e.printStackTrace();
+	            }
+	            DownloadJournal finalJournal = journal;
+	            // kiểm tra checksum ngay trên dữ liệu đang ghi, khối sai được tải lại riêng
+	            IntegrityVerifier verifier = checksum != null || pieces != null
+	                    ? new IntegrityVerifier(outputFile, fileSize, checksum, pieces)
+	                    : null;
+	            // giải nén/băm... ngay khi phần đầu file đã liên tục
+	            ContentPipeline pipeline = openPipeline(outputFile, fileSize);
+	            DownloadOutput.ContentListener contentListener = verifier;
+	            DownloadOutput.WriteListener writeListener = verifier;
+	            if (pipeline != null) {
+	                if (pieces != null) {
+	                    // có checksum từng khối: pipeline chỉ nhận các khối đã kiểm tra đúng
+	                    verifier.setVerifiedListener(pipeline);
+	                } else if (verifier != null) {
+	                    contentListener = (position, data) -> {
+	                        verifier.content(position, data);
+	                        pipeline.content(position, data);
+	                    };
+	                    writeListener = (position, length) -> {
+	                        verifier.written(position, length);
+	                        pipeline.written(position, length);
+	                    };
+	                } else {
+	                    contentListener = pipeline;
+	                    writeListener = pipeline;
+	                }
+	            }
+	            if (contentListener != null) {
+	                output.setContentListener(contentListener);
+	            }
+	            DownloadOutput.WriteListener finalWriteListener = writeListener;
+	            if (finalWriteListener != null) {
+	                output.setWriteListener((position, length) -> {
+	                    finalJournal.markCompleted(position, position + length);
+	                    finalWriteListener.written(position, length);
+	                });
+	            } else {
+	                output.setWriteListener((position, length) -> finalJournal.markCompleted(position, position + length));
+	            }
+	            // số lần thử lại dùng chung cho mọi đoạn của download này
+	            RetryBudget retries = new RetryBudget(maxRetries);
+	            SegmentManager manager = newSegmentManager(transport, mirrors, output, bandwidth, metrics, retries, pieces,
+	                    verifier);
+	            // tải từ một host: bắt đầu từ số kết nối đã học cho host đó rồi điều chỉnh dần khi đang tải
+	            HostConnectionController.Tuner tuner = segmentCount == AUTO_SEGMENTS && mirrors.size() == 1
+	                    ? HostConnectionController.getInstance().start(remote.getUrl(),
+	                            count -> scheduler.update(manager, count))
+	                    : null;
+	            this.tuner = tuner;
+	            int connections = tuner != null ? tuner.getLimit()
+	                    : segmentCount != AUTO_SEGMENTS ? segmentCount : HostConnectionController.DEFAULT_CONNECTIONS;
+	            if (resumed) {
+	                // chỉ tải các khoảng còn thiếu
+	                metrics.setResumedBytes(journal.completedBytes());
+	                for (long[] hole : journal.missingRanges()) {
+	                    manager.addSegment(hole[0], hole[1]);
+	                }
+	                if (pipeline != null && pieces == null) {
+	                    pipeline.addExisting(journal.completedRanges());
+	                }
+	                if (verifier != null) {
+	                    // các khối đã có trên đĩa được kiểm tra lại, khối sai được thêm vào danh sách tải
+	                    verifier.verifyExisting(journal.completedRanges());
+	                }
+	                updateStatus("Resuming download, " + formatFileSize(metrics.getCompletedBytes()) + " already downloaded");
+	            } else {
+	                manager.splitEvenly(fileSize, connections);
+	            }
+	            // scheduler quyết định số luồng thực tế theo số download đang chạy
+	            scheduler.register(manager, connections);
+	            
+	            // thông báo quá trình định kỳ trên luồng monitor của scheduler
+	            tasks.add(scheduler.scheduleMonitor(() -> monitorObserver(metrics, fileSize), MONITOR_INTERVAL));
+	            if (tuner != null) {
+	                tasks.add(scheduler.scheduleMonitor(() -> tuneConnections(manager, metrics, bandwidth), TUNE_INTERVAL));
+	            }
+	            // Hoàn tất xử lý các phân đoạn
+	            try {
+	                completeDownload(manager, fileSize);
+	                if (verifier != null) {
+	                    while (true) {
+	                        // khối chưa kiểm tra được khi đang tải mà sai thì được tải lại như khi đang tải
+	                        SegmentManager refetch = newSegmentManager(transport, mirrors, output, bandwidth, metrics,
+	                                retries, pieces, verifier);
+	                        if (verifier.checkPieces()) {
+	                            break;
+	                        }
+	                        scheduler.register(refetch, connections);
+	                        completeDownload(refetch, fileSize);
+	                    }
+	                    verify(verifier, journal);
+	                }
+	                // chỉ xóa journal khi dữ liệu đã nằm trên đĩa
+	                output.force();
+	                journal.delete();
+	                if (pipeline != null) {
+	                    pipeline.finish();
+	                    updateStatus("Post-processing completed");
+	                }
+	            } catch (IOException e) {
+	                if (pipeline != null) {
+	                    pipeline.abort();
+	                }
+	                if (isCausedBy(e, RemoteFileChangedException.class)) {
+	                    // phần đã tải thuộc bản cũ, lần sau tải lại từ đầu
+	                    journal.delete();
+	                    updateStatus("File changed on server during download, it will be downloaded again from the start");
+	                }
+	                throw e;
+	            } finally {
+	                journal.flush();
+	                if (verifier != null) {
+	                    verifier.close();
+	                }
+	                if (pipeline != null) {
+	                    pipeline.close();
+	                }
+	                // giữ số kết nối đã học (kể cả khi lỗi), trừ khi người dùng đã tự đặt số luồng
+	                if (tuner != null && this.tuner == tuner) {
+	                    tuner.finish();
+	                }
+	                this.tuner = null;
+	            }
+	        }
+	    } else { // tải thông thường nếu không cho phép  tải phân đoạn 
+	        performSingleThreadDownload(transport, remote.getUrl(), outputFile, checksum, bandwidth, metrics);
+	    }
+	}
+
+	private static boolean isCausedBy(Throwable e, Class<? extends Throwable> type) {
+	    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+	        if (type.isInstance(cause)) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+
+	// Kiểm tra checksum cả file (các khối đã được kiểm tra bằng checkPieces).
+	// Nếu sai thì bỏ journal để lần sau tải lại từ đầu
+	private void verify(IntegrityVerifier verifier, DownloadJournal journal) throws IOException {
+	    try {
+	        verifier.finish();
+	        updateStatus("Checksum verified");
+	    } catch (IOException e) {
+	        journal.delete();
+	        updateStatus(e.getMessage());
+	        throw e;
+	    }
+	}
+
+	// Các bước xử lý khi đang tải của lần tải này, null nếu không có bước nào
+	private ContentPipeline openPipeline(File outputFile, long fileSize) throws IOException {
+	    List<PipelineStage> stages = new ArrayList<>();
+	    File extractDirectory = this.extractDirectory;
+	    if (extractDirectory != null) {
+	        ExtractStage extract = ExtractStage.forFileName(outputFile.getName(), extractDirectory);
+	        if (extract != null) {
+	            stages.add(extract);
+	        } else {
+	            updateStatus(outputFile.getName() + " is not a supported archive, not extracting");
+	        }
+	    }
+	    String pipelineDigest = this.pipelineDigest;
+	    if (pipelineDigest != null) {
+	        stages.add(new DigestStage(pipelineDigest, result -> updateStatus("Digest: " + result)));
+	    }
+	    if (contentStore != null) {
+	        stages.add(new DigestStage(ContentStore.ALGORITHM,
+	                result -> contentDigest = result.substring(result.indexOf('=') + 1)));
+	    }
+	    // các stage do người dùng thêm chỉ dùng cho một lần tải
+	    for (PipelineStage stage : pipelineStages) {
+	        stages.add(stage);
+	        pipelineStages.remove(stage);
+	    }
+	    return stages.isEmpty() ? null : new ContentPipeline(outputFile, fileSize, stages);
+	}
+
+	private DownloadOutput openOutput(File outputFile) throws IOException {
+	    if (outputMode == OutputMode.MEMORY_MAPPED) {
+	        return new MappedFileOutput(outputFile, false,
+	                bufferSize == FileChannelOutput.ADAPTIVE ? FileChannelOutput.BUFFER_SIZE : bufferSize);
+	    }
+	    return new FileChannelOutput(outputFile, false, bufferSize);
+	}
+
+	// Các luồng tải lấy đoạn từ segmentManager, luồng nào xong sớm sẽ lấy bớt việc của luồng chậm nhất.
+	// Manager mới thay cho segmentManager (tải lại khối sai sau khi đã tải xong cũng dùng manager mới),
+	// khối sai checksum từ giờ được tải lại qua manager này
+	private SegmentManager newSegmentManager(HttpTransport transport, MirrorSet mirrors, DownloadOutput output,
+	        BandwidthLimiter.Share bandwidth, DownloadMetrics metrics, RetryBudget retries, PieceHashes pieces,
+	        IntegrityVerifier verifier) {
+	    SegmentManager manager = new SegmentManager(owner -> tasks.add(scheduler.submitSegmentWorker(() -> {
+	        try {
+	            runSegmentWorker(owner, transport, mirrors, output, bandwidth, metrics, retries);
 	        } catch (IOException e) {
-	            updateStatus("Error setting file length: " + e.getMessage());
 	            e.printStackTrace();
+	            updateStatus("Error in downloading segment: " + e.getMessage());
 	        }
+	    })));
+	    this.segmentManager = manager;
+	    if (pieces != null) {
+	        manager.setAlignment(pieces.getPieceLength());
 	    }
-	    AtomicLong totalBytesDownloaded = new AtomicLong(0);
-	    if (acceptRanges && fileSize > 0) {
-	        long segmentSize = fileSize / NUM_SEGMENTS;
-	        
-	        // futures dùng get() để kiểm tra các luồng tải phân đoạn có hoàng thành hay không
-	        // chú ý không thêm monitorObserver vào futures vì không kiểm tra hoàng thành
-	        List<Future<?>> futures = new ArrayList<>();
-	        
-	        for (int i = 0; i < NUM_SEGMENTS; i++) {
-	            long startByte = i * segmentSize;
-	            long endByte = (i == NUM_SEGMENTS - 1) ? fileSize - 1 : (i + 1) * segmentSize - 1;
-	            final int segmentNumber = i;
-	            // Thêm các luồng tải phân đoạn vào executor
-	            futures.add(executor.submit(() -> {
-	                try {
-	                    downloadSegment(fileUrl, startByte, endByte, outputFile, segmentNumber, totalBytesDownloaded, fileSize);
-	                } catch (IOException e) {
-	                    e.printStackTrace();
-	                    updateStatus("Error in downloading segment: " + e.getMessage());
+	    if (verifier != null) {
+	        verifier.setFailureHandler((start, end) -> {
+	            updateStatus("Checksum mismatch at bytes " + start + "-" + end + ", downloading again");
+	            manager.refetch(start, end);
+	        });
+	    }
+	    return manager;
+	}
+
+	// Tải lần lượt các đoạn được segmentManager giao cho đến khi hết việc, mỗi đoạn từ mirror đang nhanh nhất.
+	// Lỗi thì đoạn được tải tiếp từ byte chưa ghi: ngay qua mirror khác nếu có, không thì chờ (backoff) rồi thử lại,
+	// cho đến khi hết retries
+	private void runSegmentWorker(SegmentManager manager, HttpTransport transport, MirrorSet mirrors,
+	        DownloadOutput output, BandwidthLimiter.Share bandwidth, DownloadMetrics metrics, RetryBudget retries)
+	        throws IOException {
+	    Segment segment = manager.next(null);
+	    // số lần lỗi liên tiếp của đoạn hiện tại (không tải thêm được byte nào giữa các lần)
+	    int attempt = 0;
+	    Segment failedSegment = null;
+	    long failedAt = -1;
+	    try {
+	        while (segment != null) {
+	            MirrorSet.Lease lease = mirrors.acquire();
+	            if (lease == null) {
+	                throw new IOException("No usable mirror left");
+	            }
+	            boolean completed;
+	            try {
+	                completed = downloadSegment(transport, lease.mirror, segment, output, bandwidth, metrics);
+	            } catch (RemoteFileChangedException e) {
+	                // dữ liệu đã nhận từ mirror này vẫn thuộc bản cũ (If-Range), chỉ bỏ mirror
+	                if (!mirrors.drop(lease)) {
+	                    throw e;
+	                }
+	                updateStatus("Mirror " + FtpTransport.redact(lease.mirror.getUrl()) + " dropped: file changed");
+	                if (segment.isDone()) {
+	                    segment = manager.next(segment);
+	                }
+	                continue;
+	            } catch (WriteFailedException e) {
+	                // lỗi ghi file: mirror không có lỗi, tải lại qua mirror khác cũng vô ích
+	                mirrors.release(lease, false);
+	                throw e;
+	            } catch (IOException e) {
+	                HostConnectionController.Tuner tuner = this.tuner;
+	                boolean throttled = tuner != null && HostConnectionController.isThrottle(e);
+	                if (throttled) {
+	                    tuner.throttled();
+	                }
+	                boolean alternative = mirrors.release(lease, true);
+	                if (Thread.currentThread().isInterrupted()) {
+	                    throw e;
 	                }
-	            }));
+	                if (!alternative) {
+	                    // server không nhận thêm kết nối: dừng luồng này, các luồng còn lại tải tiếp phần của nó
+	                    if (throttled && manager.retire(segment)) {
+	                        updateStatus("Server refused connection for segment " + (segment.getId() + 1)
+	                                + " (" + e.getMessage() + "), reducing connections");
+	                        segment = null;
+	                        return;
+	                    }
+	                    if (!RetryBudget.isRetryable(e)) {
+	                        throw e;
+	                    }
+	                }
+	                if (!retries.tryAcquire()) {
+	                    updateStatus("No retries left for segment " + (segment.getId() + 1));
+	                    throw e;
+	                }
+	                metrics.recordRetry();
+	                if (segment != failedSegment || segment.getPosition() > failedAt) {
+	                    attempt = 0;
+	                }
+	                attempt++;
+	                failedSegment = segment;
+	                failedAt = segment.getPosition();
+	                if (alternative) {
+	                    updateStatus("Mirror " + FtpTransport.redact(lease.mirror.getUrl()) + " failed, retrying segment "
+	                            + (segment.getId() + 1) + " from another mirror");
+	                } else {
+	                    long delay = RetryBudget.backoffMillis(attempt);
+	                    updateStatus("Retrying segment " + (segment.getId() + 1) + " from byte " + failedAt + " in "
+	                            + df.format(delay / 1000.0) + "s (" + retries.getRemaining() + " retries left)");
+	                    try {
+	                        Thread.sleep(delay);
+	                    } catch (InterruptedException ie) {
+	                        Thread.currentThread().interrupt();
+	                        throw new InterruptedIOException("Download cancelled");
+	                    }
+	                }
+	                if (segment.isDone()) {
+	                    // phần còn lại đã bị luồng khác lấy
+	                    segment = manager.next(segment);
+	                }
+	                continue;
+	            }
+	            mirrors.release(lease, false);
+	            if (!completed) {
+	                // chỉ dừng giữa đoạn khi download bị hủy (luồng bị interrupt hoặc PauseGate đã hủy)
+	                manager.fail(new CancellationException("Download cancelled"));
+	                return;
+	            }
+	            segment = manager.next(segment);
 	        }
-	        
-	        // Thêm luồng thông báo quá trình vào excutor
-	        executor.submit(() -> monitorObserver(totalBytesDownloaded, fileSize));
-	        // Hoàn tất xử lý các phân đoạn
-	        completeDownload(futures, fileSize);
-	    } else { // tải thông thường nếu không cho phép  tải phân đoạn 
-	        performSingleThreadDownload(connection, outputFile, totalBytesDownloaded);
-	    }
-	}
-
-	private void monitorObserver(AtomicLong totalBytesDownloaded, Long fileSize) {
-	    while (!Thread.currentThread().isInterrupted())
-	    {
-	    	try {
-		        // Xử lý pause
-		        lock.lock();
-		        try {
-		            while (!this.runningFlag) {
-		                try {
-		                    pauseCondition.await();
-		                } catch (InterruptedException e) {
-		                    Thread.currentThread().interrupt();
-		                    return;
-		                }
-		            }
-		        } finally {
-		            lock.unlock();
-		        }
-		        
-		        // thông báo tổng quan
-                updateOverallProgress(totalBytesDownloaded.get(), fileSize);
-	            
-		        // tạm nghỉ luồng monitorObserver
-		        Thread.sleep(3000);
-		    } catch (InterruptedException e) {
-		        Thread.currentThread().interrupt();
-		    }
+	    } catch (IOException | RuntimeException e) {
+	        manager.fail(e);
+	        throw e;
+	    } finally {
+	        // dừng khi đang giữ một đoạn: trả đoạn đó và bớt số luồng để manager không chờ luồng đã thoát
+	        if (segment != null) {
+	            manager.abandon(segment);
+	        }
+	    }
+	}
+
+	// Chạy định kỳ trên luồng monitor, bỏ qua khi đang tạm dừng
+	private void monitorObserver(DownloadMetrics metrics, Long fileSize) {
+	    if (this.runningFlag) {
+	        // thông báo tổng quan
+	        updateOverallProgress(metrics.getCompletedBytes(), fileSize);
+	    }
+	}
+
+	// Chạy định kỳ trên luồng monitor: đưa tốc độ hiện tại cho bộ điều chỉnh số kết nối.
+	// Khi tạm dừng hoặc bị giới hạn băng thông thì tốc độ không phản ánh server, bỏ qua
+	private void tuneConnections(SegmentManager manager, DownloadMetrics metrics, BandwidthLimiter.Share bandwidth) {
+	    HostConnectionController.Tuner tuner = this.tuner;
+	    if (tuner == null) {
+	        return;
 	    }
-		
+	    if (!this.runningFlag || bandwidth.getEffectiveRate() > 0) {
+	        tuner.reset();
+	        return;
+	    }
+	    tuner.sample(metrics.getBytesDownloaded(), manager.activeCount());
 	}
 
-	private void completeDownload(List<Future<?>> futures, long fileSize) throws IOException {
+	private void completeDownload(SegmentManager manager, long fileSize) throws IOException {
 	    try {
-	    	// future.get() : đợi một luồng chạy xong
-	    	 for (Future<?> future : futures) {
-	    		 future.get();
-	         }
+	    	// đợi tất cả các đoạn tải xong (kể cả các đoạn được cắt thêm khi đang tải)
+	    	manager.completion().get();
 	        // thông báo
 	        updateOverallProgress(fileSize, fileSize);
 	        updateStatus("Download completed successfully!");
@@ -262,53 +732,179 @@ public class AdvancedDownloader {
 	        throw new IOException("Download failed", e);
 	    } finally {
 	        this.runningFlag = false;
-	        executor.shutdownNow();  // Hủy tất cả các luồng
+	        scheduler.unregister(manager);
+	        cancelTasks();  // Hủy tất cả các luồng
 	    }
 	}
 	
-	private void downloadSegment(String fileUrl, long startByte, long endByte, File outputFile, int segmentNumber,
-	        AtomicLong totalBytesDownloaded, long fileSize) throws IOException {
+	// Chu kỳ ghi journal (ms), dữ liệu tải trong khoảng này có thể phải tải lại nếu chương trình bị tắt đột ngột
+	public void setJournalFlushInterval(long millis) {
+		this.journalFlushInterval = millis;
+	}
+	
+	// Chọn lớp kết nối HTTP, mặc định là HttpClientTransport (HTTP/2, dùng lại kết nối)
+	public void setTransport(HttpTransport transport) {
+		this.transport = transport;
+	}
+	
+	// Giới hạn tốc độ tải xuống/lên chung cho mọi torrent (bytes/s, 0 = không giới hạn), có thể đổi khi đang tải
+	public static void setTorrentRateLimits(long downloadBytesPerSecond, long uploadBytesPerSecond) {
+		TorrentManager.getInstance().setRateLimits(downloadBytesPerSecond, uploadBytesPerSecond);
+	}
+	
+	// Giới hạn tổng băng thông HTTP của mọi download (bytes/s, 0 = không giới hạn)
+	public static void setGlobalBandwidthLimit(long bytesPerSecond) {
+		BandwidthLimiter.getGlobal().setGlobalRate(bytesPerSecond);
+	}
+	
+	// Giới hạn riêng của download này (bytes/s, 0 = không giới hạn), có thể đổi khi đang tải
+	public void setBandwidthLimit(long bytesPerSecond) {
+		this.bandwidthLimit = bytesPerSecond;
+		BandwidthLimiter.Share share = this.bandwidth;
+		if (share != null) {
+			share.setRate(bytesPerSecond);
+		}
+	}
+	
+	// Trọng số khi chia tổng giới hạn giữa các download
+	public void setBandwidthWeight(double weight) {
+		this.bandwidthWeight = weight;
+		BandwidthLimiter.Share share = this.bandwidth;
+		if (share != null) {
+			share.setWeight(weight);
+		}
+	}
+	
+	// Thêm một bước xử lý nội dung file ngay khi đang tải, dùng cho lần tải tiếp theo
+	public void addPipelineStage(PipelineStage stage) {
+		pipelineStages.add(stage);
+	}
+	
+	// Giải nén file .gz, .zip, .tar, .tar.gz vào directory trong lúc tải (null: không giải nén)
+	public void setExtractDirectory(File directory) {
+		this.extractDirectory = directory;
+	}
+	
+	// Băm file trong lúc tải (md5, sha1, sha256, sha512), kết quả báo qua statusChanged (null: không băm)
+	public void setPipelineDigest(String algorithm) {
+		if (algorithm != null && Checksum.normalizeAlgorithm(algorithm) == null) {
+			throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+		}
+		this.pipelineDigest = algorithm;
+	}
+	
+	// Tổng số lần thử lại khi đoạn bị lỗi (mỗi download), áp dụng từ lần tải tiếp theo
+	public void setMaxRetries(int retries) {
+		this.maxRetries = retries;
+	}
+	
+	// Số luồng tải, có thể đổi khi đang tải: các luồng thừa sẽ dừng sau khi xong đoạn hiện tại.
+	// 0 (mặc định): tự điều chỉnh theo từng host, bắt đầu từ số kết nối đã học ở các lần tải trước
+	public void setSegmentCount(int count) {
+		this.segmentCount = count;
+		if (count != AUTO_SEGMENTS) {
+			this.tuner = null;
+		}
+		SegmentManager manager = this.segmentManager;
+		if (manager != null && count != AUTO_SEGMENTS) {
+			scheduler.update(manager, count);
+		}
+	}
+	
+	// Kích thước bộ đệm ghi của mỗi luồng tải, áp dụng từ lần tải tiếp theo.
+	// 0 (mặc định): tự điều chỉnh theo tốc độ từng kết nối và bộ nhớ đệm còn lại
+	public void setBufferSize(int bytes) {
+		this.bufferSize = bytes;
+	}
+	
+	// Tổng bộ nhớ đệm (direct) của mọi download, hết thì luồng tải chờ thay vì cấp phát thêm
+	public static void setBufferMemoryBudget(long bytes) {
+		BufferPool.getInstance().setBudget(bytes);
+	}
+	
+	// Cách ghi file của các lần tải phân đoạn tiếp theo (tải một luồng luôn dùng FileChannel)
+	public void setOutputMode(OutputMode mode) {
+		this.outputMode = mode;
+	}
+	
+	// Bỏ qua file đã tải trước đó nếu server cho biết file không đổi (mặc định bật)
+	public void setSkipUnchanged(boolean skipUnchanged) {
+		this.skipUnchanged = skipUnchanged;
+	}
+	
+	// Lưu các file tải xong theo nội dung trong downloads/.cas, file trùng nội dung dùng chung một bản trên đĩa
+	// (hard link), file có checksum mong đợi đã có trong kho thì không tải lại
+	public void setContentStore(boolean enabled) {
+		this.contentStore = enabled ? new ContentStore(new File("downloads", ContentStore.DIRECTORY)) : null;
+	}
+	
+	// Checksum mong đợi của cả file (md5, sha1, sha256, sha512 dạng hex), ưu tiên hơn checksum kèm URL hay header
+	public void setExpectedChecksum(String algorithm, String hex) {
+		this.expectedChecksum = algorithm != null ? Checksum.of(algorithm, hex) : null;
+	}
+	
+	// Checksum từng khối pieceLength byte, khối sai được tải lại riêng (cần server hỗ trợ Range)
+	public void setPieceHashes(String algorithm, long pieceLength, List<String> hexHashes) {
+		this.pieceHashes = algorithm != null ? new PieceHashes(algorithm, pieceLength, hexHashes) : null;
+	}
+	
+	// Tải một đoạn, trả về false nếu bị hủy giữa chừng
+	private boolean downloadSegment(HttpTransport transport, Mirror mirror, Segment segment, DownloadOutput output,
+	        BandwidthLimiter.Share bandwidth, DownloadMetrics metrics) throws IOException {
+		int segmentNumber = segment.getId();
+		long startByte = segment.getPosition();
 		// thiết lập kết nối http
-		URL url = new URL(fileUrl);
-	    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-	    connection.setRequestMethod("GET");
-	    connection.setRequestProperty("User-Agent", "Mozilla/5.0");
-	    connection.setRequestProperty("Range", "bytes=" + startByte + "-" + endByte);
-	    // Mở stream đọc và ghi
-	    RandomAccessFile raf = new RandomAccessFile(outputFile, "rw");
-	    InputStream in = connection.getInputStream();
-        raf.seek(startByte);
-        byte[] buffer = new byte[8192];
+		long connectStart = System.nanoTime();
+	    InputStream stream;
+	    try {
+	        stream = transport.openStream(mirror.getUrl(), startByte, segment.getEnd(), mirror.getValidator());
+	    } catch (IOException e) {
+	        metrics.recordError();
+	        throw e;
+	    }
+	    metrics.recordConnectLatency((System.nanoTime() - connectStart) / 1_000_000);
+	    // Mở channel đọc và bộ đệm ghi theo vị trí
+	    ReadableByteChannel in = Channels.newChannel(stream);
+	    DownloadOutput.Sink sink = output.openSink(startByte);
         int bytesRead;
-        long bytesDownloaded = 0;
+        long bytesDownloaded = startByte - segment.getStart();
         double lastUpdateTime = getCurrentTime();
-        long lastBytesDownloaded = 0;
+        long lastBytesDownloaded = bytesDownloaded;
         double currentTime;
+        // số byte còn được phép đọc trước khi phải lấy thêm token từ bộ giới hạn băng thông
+        long allowance = 0;
+        IOException failure = null;
+        // được bỏ khỏi metrics khi trả đoạn (finally)
+        DownloadMetrics.SegmentStats segmentStats = metrics.segment(segmentNumber);
 		try { 		
-	        while ((bytesRead = in.read(buffer)) != -1) {
+	        while (!segment.isDone()) {
+	            if (allowance <= 0) {
+	                if (!bandwidth.acquire(BandwidthLimiter.BATCH_SIZE)) {
+	                    return false;
+	                }
+	                allowance += BandwidthLimiter.BATCH_SIZE;
+	            }
+	            bytesRead = sink.read(in, Math.min(segment.remaining(), allowance));
+	            if (bytesRead == -1) {
+	                break;
+	            }
 	            // Kiểm tra interrupt 
 	            if (Thread.currentThread().isInterrupted()) {
-	                return;
+	                return false;
 	            }
-	            // Xử lý pause
-	            lock.lock();
-	            try {
-	                while (!this.runningFlag) {
-	                    try {
-	                        pauseCondition.await();
-	                    } catch (InterruptedException e) {
-	                        Thread.currentThread().interrupt();
-	                        connection.disconnect();
-	                        return;
-	                    }
-	                }
-	            } finally {
-	                lock.unlock();
+	            // Xử lý pause (chỉ đọc một biến volatile khi đang chạy)
+	            if (!pauseGate.await()) {
+	                return false;
 	            }
-	            // Tải và cập nhật tiến trình
-	            raf.write(buffer, 0, bytesRead);
-	            bytesDownloaded += bytesRead;
-	            totalBytesDownloaded.addAndGet(bytesRead);
+	            // chỉ giữ phần còn thuộc đoạn này (nửa sau có thể đã bị luồng khác lấy)
+	            int claimed = segment.claim(bytesRead);
+	            sink.discard(bytesRead - claimed);
+	            allowance -= claimed;
+	            // cập nhật tiến trình
+	            bytesDownloaded += claimed;
+	            metrics.addBytes(claimed);
+	            mirror.addBytes(claimed);
+	            segmentStats.addBytes(claimed);
 	            // thông báo mỗi 2 giây
 	            currentTime = getCurrentTime();
 	            if (currentTime - lastUpdateTime >= 2000) {
@@ -318,87 +914,149 @@ public class AdvancedDownloader {
 	                double speedInBytesPerSecond = (bytesDelta * 1000.0) / timeElapsed;
 
 	                // Tính toán tiến trình phân đoạn
-	                double segmentProgress = (bytesDownloaded * 100.0) / (endByte - startByte + 1);
+	                double segmentProgress = (bytesDownloaded * 100.0) / segment.length();
 	                // Cập nhật thông báo
-	                updateSegmentProgress(segmentNumber, bytesDownloaded, endByte - startByte + 1, segmentProgress, speedInBytesPerSecond);
+	                updateSegmentProgress(segmentNumber, bytesDownloaded, segment.length(), segmentProgress, speedInBytesPerSecond);
 	                // Cập nhật thời gian và bytes cho lần tính toán tiếp theo
 	                lastUpdateTime = currentTime;
 	                lastBytesDownloaded = bytesDownloaded;
 	            }
 	        }
-	        updateSegmentProgress(segmentNumber, bytesDownloaded, endByte - startByte + 1, 100,0);
+	        if (!segment.isDone()) {
+	            throw new IOException("Connection closed before segment " + (segmentNumber+1) + " was complete");
+	        }
+	        sink.close();
+	        updateSegmentProgress(segmentNumber, bytesDownloaded, segment.length(), 100,0);
+	        return true;
 	    } catch (IOException e) {
+	        failure = e;
+	        metrics.recordError();
 	        updateStatus("Error in segment " + (segmentNumber+1) + ": " + e.getMessage());
 	        throw e;
 	    } finally {
 	        try {
-	            if (raf != null) {
-	                try {
-	                    raf.close();
-	                } catch (IOException e) {}
+	            // ghi nốt phần còn trong bộ đệm (dữ liệu đã nhận vẫn hợp lệ khi bị hủy)
+	            sink.close();
+	        } catch (IOException e) {
+	            if (failure != null) {
+	                failure.addSuppressed(e);
+	            } else {
+	                // ghi lỗi khi bị hủy/tạm dừng: không được coi như đã dừng bình thường
+	                metrics.recordError();
+	                updateStatus("Error in segment " + (segmentNumber+1) + ": " + e.getMessage());
+	                throw e;
 	            }
 	        } finally {
+	            // byte đã nhận nhưng chưa ghi được không tính là đã tải, lần thử lại tải tiếp từ byte chưa ghi
+	            segment.rewind(sink.writtenPosition());
+	            metrics.removeSegment(segmentNumber);
 	            try {
-	                if (in != null) {
-	                    try {
-	                        in.close();
-	                    } catch (IOException e) {}
-	                }
-	            } finally {
-	                if (connection != null) {
-	                    try {
-	                        connection.disconnect();
-	                    } catch (Exception e) {}
-	                }
-	            }
+	                in.close();
+	            } catch (IOException e) {}
 	        }
 	    }
 	}
 
-	private void performSingleThreadDownload(HttpURLConnection connection, File outputFile, AtomicLong totalBytesDownloaded) throws IOException {
+	// Tải một luồng, chép thẳng từ kết nối vào file theo từng khối.
+	// Khi có checksum thì đọc qua Sink để băm dữ liệu trước khi ghi (transferFrom không đi qua bộ nhớ của Java)
+	private void performSingleThreadDownload(HttpTransport transport, URL url, File outputFile, Checksum checksum,
+	        BandwidthLimiter.Share bandwidth, DownloadMetrics metrics) throws IOException {
 	    updateStatus("Kich thuoc file khong xac dinh, he thong se thuc hien tai thong thuong!");
 	    updateStatus("Vui long doi trong giay lat . . .");
-	    try (InputStream in = connection.getInputStream(); FileOutputStream out = new FileOutputStream(outputFile)) {
-	        byte[] buffer = new byte[8192];
-	        int bytesRead;
-	        while ((bytesRead = in.read(buffer)) != -1) {
-	            out.write(buffer, 0, bytesRead);
-	            totalBytesDownloaded.addAndGet(bytesRead);
+	    MessageDigest digest = checksum != null ? checksum.newDigest() : null;
+	    ContentPipeline pipeline = null;
+	    ContentStore.detach(outputFile);
+	    try {
+	        try (ReadableByteChannel in = Channels.newChannel(transport.openStream(url, 0, -1));
+	                FileChannelOutput output = new FileChannelOutput(outputFile, true)) {
+	            // dữ liệu tới đúng thứ tự nên pipeline nhận thẳng từ Sink
+	            pipeline = openPipeline(outputFile, -1);
+	            ContentPipeline finalPipeline = pipeline;
+	            DownloadOutput.Sink sink = null;
+	            if (digest != null || pipeline != null) {
+	                output.setContentListener((position, data) -> {
+	                    if (digest != null) {
+	                        digest.update(data.duplicate());
+	                    }
+	                    if (finalPipeline != null) {
+	                        finalPipeline.content(position, data);
+	                    }
+	                });
+	                if (pipeline != null) {
+	                    // phần bị bỏ qua khi stage chậm được đọc lại từ file sau khi đã ghi
+	                    output.setWriteListener(pipeline);
+	                }
+	                sink = output.openSink(0);
+	            }
+	            long position = 0;
+	            long transferred;
+	            long chunkSize;
+	            do {
+	                // Xử lý pause
+	                if (!pauseGate.await()) {
+	                    throw new InterruptedIOException("Download cancelled");
+	                }
+	                // khi bị giới hạn băng thông thì chép theo từng lô token
+	                chunkSize = TRANSFER_CHUNK_SIZE;
+	                if (bandwidth.getEffectiveRate() > 0) {
+	                    chunkSize = BandwidthLimiter.BATCH_SIZE;
+	                    if (!bandwidth.acquire(chunkSize)) {
+	                        throw new InterruptedIOException("Download interrupted");
+	                    }
+	                }
+	                transferred = sink != null ? readFully(sink, in, chunkSize) : output.transferFrom(in, position, chunkSize);
+	                position += transferred;
+	                metrics.addBytes(transferred);
+	            } while (transferred == chunkSize);
+	            if (sink != null) {
+	                sink.close();
+	            }
+	        }
+	        if (digest != null) {
+	            byte[] actual = digest.digest();
+	            if (!checksum.matches(actual)) {
+	                String message = "Checksum mismatch: expected " + checksum + ", got " + checksum.getAlgorithm() + "="
+	                        + Checksum.toHex(actual);
+	                updateStatus(message);
+	                throw new IOException(message);
+	            }
+	            updateStatus("Checksum verified");
+	        }
+	        if (pipeline != null) {
+	            pipeline.finish();
+	            updateStatus("Post-processing completed");
+	        }
+	    } catch (IOException | RuntimeException e) {
+	        if (pipeline != null) {
+	            pipeline.abort();
+	        }
+	        throw e;
+	    } finally {
+	        if (pipeline != null) {
+	            pipeline.close();
 	        }
 	    }
 	    updateStatus("Download completed successfully!");
 	}
-	
-	private HttpURLConnection openConnection(URL url) throws IOException {
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		connection.setRequestMethod("GET");
-		connection.setRequestProperty("User-Agent", "Mozilla/5.0");
-		connection.setInstanceFollowRedirects(true);
-
-		int redirectCount = 0;
-		while (redirectCount < MAX_REDIRECTS) {
-			int status = connection.getResponseCode();
-			if (status != HttpURLConnection.HTTP_MOVED_TEMP && status != HttpURLConnection.HTTP_MOVED_PERM
-					&& status != HttpURLConnection.HTTP_SEE_OTHER) {
-				break;
-			}
-			String newUrl = connection.getHeaderField("Location");
-			connection.disconnect();
-			connection = (HttpURLConnection) new URL(newUrl).openConnection();
-			connection.setRequestProperty("User-Agent", "Mozilla/5.0");
 
-			redirectCount++;
-		}
-
-		return connection;
+	// Đọc tối đa count byte vào sink, trả về số byte đã đọc (nhỏ hơn count nghĩa là hết dữ liệu)
+	private static long readFully(DownloadOutput.Sink sink, ReadableByteChannel in, long count) throws IOException {
+	    long total = 0;
+	    while (total < count) {
+	        int n = sink.read(in, count - total);
+	        if (n < 0) {
+	            break;
+	        }
+	        total += n;
+	    }
+	    return total;
 	}
-
-	private static String getFileName(HttpURLConnection connection, String fileUrl) {
+	
+	private static String getFileName(RemoteFile remote, String fileUrl) {
 		String fileName = null;
-		Tika tika = new Tika();
 
 		// Lấy thông tin từ Content-Disposition
-		String disposition = connection.getHeaderField("Content-Disposition");
+		String disposition = remote.getContentDisposition();
 		if (disposition != null && disposition.contains("filename=")) {
 			Pattern pattern = Pattern.compile("filename=[\"']?([^\"']+)[\"']?");
 			Matcher matcher = pattern.matcher(disposition);
@@ -422,9 +1080,10 @@ public class AdvancedDownloader {
 		// Nếu tên file vẫn chưa xác định, sử dụng Apache Tika để nhận diện kiểu file
 		if (fileName == null || fileName.trim().isEmpty()) {
 			fileName = "downloaded_file";
-			String contentType = connection.getContentType();
+			String contentType = remote.getContentType();
 			if (contentType != null) {
-				String extension = tika.detect(contentType);
+				// chỉ tạo Tika khi cần, tránh nạp thư viện lúc khởi động
+				String extension = new Tika().detect(contentType);
 				if (extension != null && !extension.isEmpty()) {
 					fileName += extension; // Thêm phần mở rộng vào tên file
 				}
@@ -453,46 +1112,32 @@ public class AdvancedDownloader {
 	}
 
 	private void updateOverallProgress(long totalBytesDownloaded, long fileSize) {
-		if (statusArea != null && progressBar != null) {
-			double progress = (double) totalBytesDownloaded / fileSize * 100;
-			double nowTime = getCurrentTime();
-			double elapsedTime = nowTime - this.startTime - this.totalPauseTime;
-			double speed = totalBytesDownloaded / elapsedTime;    // milisecond
-			double estimatedTimeRemaining = (fileSize - totalBytesDownloaded) / speed;
-			speed *=1000; // tốc độ trên 1 giây
-			String progressText = String.format("Overall Progress: %s / %s (%.2f%%) - Speed: %s/s - Elapsed: %s - ETA: %s\n\n",
-					formatFileSize(totalBytesDownloaded), formatFileSize(fileSize), progress,
-					formatFileSize((long) speed), formatTime(elapsedTime), formatTime(estimatedTimeRemaining));
-			Platform.runLater(() -> {
-				progressBar.setProgress(progress / 100);
-				statusArea.appendText(progressText);
-			});
-		}
+		double progress = (double) totalBytesDownloaded / fileSize * 100;
+		double nowTime = getCurrentTime();
+		double elapsedTime = nowTime - this.startTime - this.totalPauseTime;
+		double speed = totalBytesDownloaded / elapsedTime;    // milisecond
+		double estimatedTimeRemaining = (fileSize - totalBytesDownloaded) / speed;
+		speed *=1000; // tốc độ trên 1 giây
+		String progressText = String.format("Overall Progress: %s / %s (%.2f%%) - Speed: %s/s - Elapsed: %s - ETA: %s",
+				formatFileSize(totalBytesDownloaded), formatFileSize(fileSize), progress,
+				formatFileSize((long) speed), formatTime(elapsedTime), formatTime(estimatedTimeRemaining));
+		listener.progressChanged(progress / 100, progressText);
 	}
 
 	private void updateSegmentProgress(int segmentNumber, long bytesDownloaded, 
 			long segmentSize,double segmentProgress, double segmentSpeed) {
-		if (statusArea != null) {
-			double nowTime = getCurrentTime();
-			String progressText = String.format("Segment %d: %s / %s (%.2f%%) - Speed: %s/s - Elapsed: %s\n",
-					segmentNumber+1, formatFileSize(bytesDownloaded), formatFileSize(segmentSize), segmentProgress,
-					formatFileSize((long) segmentSpeed), formatTime(nowTime-this.startTime-this.totalPauseTime));
-			Platform.runLater(() -> {
-				statusArea.appendText(progressText);
-			});
-		}
+		double nowTime = getCurrentTime();
+		String progressText = String.format("Segment %d: %s / %s (%.2f%%) - Speed: %s/s - Elapsed: %s",
+				segmentNumber+1, formatFileSize(bytesDownloaded), formatFileSize(segmentSize), segmentProgress,
+				formatFileSize((long) segmentSpeed), formatTime(nowTime-this.startTime-this.totalPauseTime));
+		listener.segmentProgressChanged(segmentNumber, progressText, segmentProgress >= 100);
 	}
 
 	private void updateProgress(double progress, String state, double instantSpeed, double averageSpeed, int peers) {
-		if (progressBar != null && statusArea != null) {
-			Platform.runLater(() -> {
-				progressBar.setProgress(progress / 100);
-				statusArea.setText(String.format(
-						"Progress: %.2f%% - State: %s - Current Speed: %s/s - Average Speed: %s/s - Peers: %d",
-						progress, state, formatFileSize((long) instantSpeed), formatFileSize((long) averageSpeed),
-						peers));
-			});
-		}
+		listener.progressChanged(progress / 100, String.format(
+				"Progress: %.2f%% - State: %s - Current Speed: %s/s - Average Speed: %s/s - Peers: %d",
+				progress, state, formatFileSize((long) instantSpeed), formatFileSize((long) averageSpeed),
+				peers));
 	}
 	
 	private double getCurrentTime() {
@@ -517,10 +1162,6 @@ public class AdvancedDownloader {
 	}
 
 	private void updateStatus(String message) {
-		if (statusArea != null) {
-			Platform.runLater(() -> {
-				statusArea.appendText(message + "\n");
-			});
-		}
+		listener.statusChanged(message);
 	}
 }
@@ -1,10 +1,15 @@
 package downloader;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
 import javafx.application.Application;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -12,27 +17,36 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
-import javafx.scene.control.ProgressBar;
-import javafx.scene.control.ScrollPane;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
-import javafx.scene.control.TextField;
+import javafx.scene.control.cell.CheckBoxTableCell;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.converter.DefaultStringConverter;
 import java.awt.Desktop;
 import java.io.IOException;
 
+// Danh sách download là một TableView: chỉ các dòng đang nhìn thấy mới có control (ô được dùng lại khi cuộn),
+// mỗi dòng chỉ là một DownloadInfo nhẹ nên dán hoặc nhập hàng chục nghìn URL một lúc được.
+// Log chi tiết của dòng đang chọn hiện ở một TextArea chung bên dưới bảng.
 public class AdvancedDownloaderGUI extends Application {
 
-    private int urlCount = 0;
-    private static final int MAX_URL_FIELDS = 7;
-    private List<DownloadInfo> downloads;
+    private final ObservableList<DownloadInfo> downloads = FXCollections.observableArrayList();
+    private TableView<DownloadInfo> table;
 
     @Override
     public void start(Stage primaryStage) {
-    	downloads = new ArrayList<>();
         primaryStage.setTitle("Advanced Downloader");
         VBox mainLayout = createMainLayout(primaryStage);
         mainLayout.getStyleClass().add("main-container");
@@ -40,9 +54,9 @@ public class AdvancedDownloaderGUI extends Application {
         scene.getStylesheets().add(getClass().getResource("styles.css").toExternalForm());
         primaryStage.setScene(scene);
         primaryStage.show();
-        
+
         //// note: hủy tải trước khi đóng ứng dụng
-        
+
         primaryStage.setOnCloseRequest(event -> {
             handleShutdown();
         });
@@ -51,21 +65,31 @@ public class AdvancedDownloaderGUI extends Application {
     private VBox createMainLayout(Stage primaryStage) {
         Label headerLabel = new Label("Advanced File Downloader");
         headerLabel.getStyleClass().add("header-label");
-        Label urlLabel = new Label("Enter URLs or Paths to .torrent (one per line):");
+        Label urlLabel = new Label("Enter, paste (Ctrl+V) or import URLs or paths to .torrent (one per line):");
         urlLabel.getStyleClass().add("section-label");
-        
-        VBox urlContainer = new VBox(10);
-        urlContainer.getStyleClass().add("url-container");
-        addUrlRow(urlContainer);
-        ScrollPane scrollPane = new ScrollPane(urlContainer);
-        scrollPane.setFitToWidth(true);
-        scrollPane.setVbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
-        scrollPane.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
-        scrollPane.getStyleClass().add("url-scroll-pane");
-        VBox.setVgrow(scrollPane, Priority.ALWAYS);
-
-        HBox buttonBox1 = createButtonBox1(primaryStage, urlContainer);
-        HBox buttonBox2 = createButtonBox2(primaryStage, urlContainer);
+
+        table = createTable();
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        TextArea statusArea = new TextArea();
+        statusArea.setEditable(false);
+        statusArea.setWrapText(true);
+        statusArea.setPrefHeight(120);
+        statusArea.setMaxWidth(Double.MAX_VALUE);
+        statusArea.getStyleClass().add("status-area");
+        // chỉ dòng đang chọn hiển thị log chi tiết
+        table.getSelectionModel().selectedItemProperty().addListener((observable, oldInfo, newInfo) -> {
+            if (oldInfo != null) {
+                oldInfo.setStatusArea(null);
+            }
+            statusArea.clear();
+            if (newInfo != null) {
+                newInfo.setStatusArea(statusArea);
+            }
+        });
+
+        HBox buttonBox1 = createButtonBox1();
+        HBox buttonBox2 = createButtonBox2(primaryStage);
         buttonBox1.getStyleClass().add("button-box");
         buttonBox2.getStyleClass().add("button-box");
 
@@ -73,7 +97,8 @@ public class AdvancedDownloaderGUI extends Application {
         mainLayout.getChildren().addAll(
             headerLabel,
             urlLabel,
-            scrollPane,
+            table,
+            statusArea,
             buttonBox1,
             buttonBox2
         );
@@ -83,34 +108,131 @@ public class AdvancedDownloaderGUI extends Application {
         return mainLayout;
     }
 
-    private HBox createButtonBox1(Stage primaryStage, VBox urlContainer) {
+    private TableView<DownloadInfo> createTable() {
+        TableView<DownloadInfo> table = new TableView<>(downloads);
+        table.setEditable(true);
+        table.getStyleClass().add("download-table");
+        table.setPlaceholder(new Label("No downloads yet"));
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<DownloadInfo, Boolean> selectColumn = new TableColumn<>();
+        selectColumn.setCellValueFactory(cell -> cell.getValue().selectedProperty());
+        selectColumn.setCellFactory(CheckBoxTableCell.forTableColumn(selectColumn));
+        selectColumn.setSortable(false);
+        selectColumn.setMinWidth(40);
+        selectColumn.setMaxWidth(40);
+
+        TableColumn<DownloadInfo, String> urlColumn = new TableColumn<>("URL");
+        urlColumn.setCellValueFactory(cell -> cell.getValue().urlProperty());
+        // chỉ sửa được URL khi dòng chưa tải
+        urlColumn.setCellFactory(column -> new TextFieldTableCell<DownloadInfo, String>(new DefaultStringConverter()) {
+            @Override
+            public void startEdit() {
+                DownloadInfo info = getTableRow() != null ? getTableRow().getItem() : null;
+                if (info != null && info.isEditable()) {
+                    super.startEdit();
+                }
+            }
+        });
+        urlColumn.setPrefWidth(400);
+
+        TableColumn<DownloadInfo, DownloadInfo.State> stateColumn = new TableColumn<>("State");
+        stateColumn.setCellValueFactory(cell -> cell.getValue().stateProperty());
+        stateColumn.setEditable(false);
+        stateColumn.setMinWidth(90);
+        stateColumn.setMaxWidth(110);
+
+        TableColumn<DownloadInfo, Double> progressColumn = new TableColumn<>("Progress");
+        progressColumn.setCellValueFactory(cell -> cell.getValue().progressProperty().asObject());
+        progressColumn.setCellFactory(ProgressBarTableCell.forTableColumn());
+        progressColumn.setEditable(false);
+        progressColumn.setPrefWidth(150);
+
+        TableColumn<DownloadInfo, String> statusColumn = new TableColumn<>("Status");
+        statusColumn.setCellValueFactory(cell -> cell.getValue().statusProperty());
+        statusColumn.setEditable(false);
+        statusColumn.setPrefWidth(400);
+
+        TableColumn<DownloadInfo, DownloadInfo> deleteColumn = new TableColumn<>();
+        deleteColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue()));
+        deleteColumn.setCellFactory(column -> new DeleteCell());
+        deleteColumn.setSortable(false);
+        deleteColumn.setMinWidth(90);
+        deleteColumn.setMaxWidth(90);
+
+        table.getColumns().addAll(List.of(selectColumn, urlColumn, stateColumn, progressColumn, statusColumn,
+                deleteColumn));
+
+        KeyCombination paste = new KeyCodeCombination(KeyCode.V, KeyCombination.SHORTCUT_DOWN);
+        table.setOnKeyPressed(e -> {
+            if (paste.match(e) && table.getEditingCell() == null) {
+                pasteUrls();
+                e.consume();
+            }
+        });
+        return table;
+    }
+
+    // Nút xóa của một dòng, ô được dùng lại cho dòng khác khi cuộn
+    private class DeleteCell extends TableCell<DownloadInfo, DownloadInfo> {
+        private final Button deleteButton = new Button("Delete");
+
+        private DeleteCell() {
+            deleteButton.getStyleClass().addAll("custom-button", "delete-button");
+            deleteButton.setOnAction(e -> {
+                if (getItem() != null) {
+                    deleteUrlRow(getItem());
+                }
+            });
+        }
+
+        @Override
+        protected void updateItem(DownloadInfo item, boolean empty) {
+            super.updateItem(item, empty);
+            setGraphic(empty || item == null ? null : deleteButton);
+        }
+    }
+
+    private HBox createButtonBox1() {
         Button downloadButton = createStyledButton("Download", "download");
-        downloadButton.setOnAction(e -> downloadSelected(urlContainer));
-        
+        downloadButton.setOnAction(e -> downloadSelected());
+
         Button pauseButton = createStyledButton("Pause", "pause");
-        pauseButton.setOnAction(e -> pauseSelected(urlContainer));
+        pauseButton.setOnAction(e -> pauseSelected());
 
         Button resumeButton = createStyledButton("Resume", "pause");
-        resumeButton.setOnAction(e -> resumeSelected(urlContainer));
-        
+        resumeButton.setOnAction(e -> resumeSelected());
+
+        Button deleteButton = createStyledButton("Delete", "delete");
+        deleteButton.setOnAction(e -> deleteSelected());
+
+        CheckBox selectAll = new CheckBox("Select all");
+        selectAll.setOnAction(e -> downloads.forEach(info -> info.setSelected(selectAll.isSelected())));
+
         HBox buttonBox = new HBox(15);
-        buttonBox.getChildren().addAll(downloadButton, pauseButton, resumeButton);
+        buttonBox.getChildren().addAll(selectAll, downloadButton, pauseButton, resumeButton, deleteButton);
         buttonBox.setAlignment(Pos.CENTER);
 
         return buttonBox;
     }
-    private HBox createButtonBox2(Stage primaryStage, VBox urlContainer) {
+    private HBox createButtonBox2(Stage primaryStage) {
         Button addUrlButton = createStyledButton("Add URL", "add-url");
-        addUrlButton.setOnAction(e -> addUrlRow(urlContainer));
+        addUrlButton.setOnAction(e -> addUrlRow());
+
+        Button pasteButton = createStyledButton("Paste URLs", "add-url");
+        pasteButton.setOnAction(e -> pasteUrls());
+
+        Button importButton = createStyledButton("Import List", "add-url");
+        importButton.setOnAction(e -> importUrlList(primaryStage));
 
         Button browseButton = createStyledButton("Browse Torrent", "browse");
-        browseButton.setOnAction(e -> openFileChooser(primaryStage, urlContainer));
+        browseButton.setOnAction(e -> openFileChooser(primaryStage));
 
         Button browseFolderButton = createStyledButton("Open Downloads folder", "browse");
-        browseFolderButton.setOnAction(e -> openDownloadsFolder()); 
+        browseFolderButton.setOnAction(e -> openDownloadsFolder());
 
         HBox buttonBox = new HBox(15);
-        buttonBox.getChildren().addAll(addUrlButton, browseButton,browseFolderButton);
+        buttonBox.getChildren().addAll(addUrlButton, pasteButton, importButton, browseButton, browseFolderButton);
         buttonBox.setAlignment(Pos.CENTER);
 
         return buttonBox;
@@ -123,78 +245,75 @@ public class AdvancedDownloaderGUI extends Application {
         return button;
     }
 
-    private HBox createUrlRow(int index) {
-        CheckBox checkBox = new CheckBox();
-        checkBox.getStyleClass().add("custom-checkbox");
-
-        TextField urlField = new TextField();
-        urlField.setPromptText("Enter URL or file path here...");
-        urlField.getStyleClass().add("url-field");
-        urlField.setPrefWidth(400);
-
-        Button deleteButton = new Button("Delete");
-        deleteButton.getStyleClass().addAll("custom-button", "delete-button");
-        deleteButton.setOnAction(e -> deleteUrlRow((HBox) deleteButton.getParent()));
-
-        VBox statusContainer = createStatusContainer();
-        statusContainer.getStyleClass().add("status-container");
-        HBox.setHgrow(statusContainer, Priority.ALWAYS);
-
-        HBox urlRow = new HBox(10);
-        urlRow.getChildren().addAll(checkBox, urlField, deleteButton, statusContainer);
-        urlRow.getStyleClass().add("url-row");
-        urlRow.setAlignment(Pos.CENTER_LEFT);
-
-        AdvancedDownloader downloader = new AdvancedDownloader(
-            (ProgressBar) statusContainer.getChildren().get(0),
-            (TextArea) statusContainer.getChildren().get(1)
-        );
-        
-        downloads.add(new DownloadInfo(downloader, urlRow));
+    private void openFileChooser(Stage stage) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Select Torrent File");
+        fileChooser.getExtensionFilters().add(
+            new FileChooser.ExtensionFilter("Torrent Files", "*.torrent"));
+        File selectedFile = fileChooser.showOpenDialog(stage);
 
-        return urlRow;
+        if (selectedFile != null) {
+            addUrls(List.of(selectedFile.getAbsolutePath()));
+        }
     }
 
-    private VBox createStatusContainer() {
-        ProgressBar progressBar = new ProgressBar(0);
-        progressBar.getStyleClass().add("custom-progress-bar");
-        progressBar.setMaxWidth(Double.MAX_VALUE);
-
-        TextArea statusArea = new TextArea();
-        statusArea.setEditable(false);
-        statusArea.setWrapText(true);
-        statusArea.setPrefHeight(80);
-        statusArea.setMaxWidth(Double.MAX_VALUE);
-        statusArea.getStyleClass().add("status-area");
+    // Danh sách URL dạng văn bản, mỗi dòng một download như DownloadCli
+    private void importUrlList(Stage stage) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import URL List");
+        fileChooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("Text Files", "*.txt", "*.list"),
+            new FileChooser.ExtensionFilter("All Files", "*.*"));
+        File selectedFile = fileChooser.showOpenDialog(stage);
 
-        VBox statusContainer = new VBox(5);
-        statusContainer.getChildren().addAll(progressBar, statusArea);
-        VBox.setVgrow(statusArea, Priority.ALWAYS);
+        if (selectedFile != null) {
+            try {
+                addUrls(parseUrls(new String(Files.readAllBytes(selectedFile.toPath()), StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                showAlert("Error", "Unable to read " + selectedFile.getName() + ": " + e.getMessage());
+            }
+        }
+    }
 
-        return statusContainer;
+    private void pasteUrls() {
+        String text = Clipboard.getSystemClipboard().getString();
+        if (text != null) {
+            addUrls(parseUrls(text));
+        }
     }
 
-    private void openFileChooser(Stage stage, VBox urlContainer) {
-        FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Select Torrent File");
-        fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("Torrent Files", "*.torrent"));
-        File selectedFile = fileChooser.showOpenDialog(stage);
+    // Bỏ dòng trống và dòng chú thích (#)
+    private static List<String> parseUrls(String text) {
+        List<String> urls = new ArrayList<>();
+        for (String line : text.split("\\R")) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                urls.add(line);
+            }
+        }
+        return urls;
+    }
 
-        if (selectedFile != null) {
-            addUrlRow(urlContainer);
-            HBox lastUrlRow = (HBox) urlContainer.getChildren().get(urlCount - 1);
-            TextField lastUrlField = (TextField) lastUrlRow.getChildren().get(1);
-            lastUrlField.setText(selectedFile.getAbsolutePath());
+    // Thêm một lần để bảng chỉ cập nhật một lần
+    private void addUrls(List<String> urls) {
+        List<DownloadInfo> infos = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            infos.add(new DownloadInfo(url));
+        }
+        downloads.addAll(infos);
+        if (!infos.isEmpty()) {
+            table.scrollTo(downloads.size() - 1);
         }
     }
+
     private void openDownloadsFolder() {
         try {
             File currentDirectory = new File(System.getProperty("user.dir"));
             File downloadsFolder = new File(currentDirectory, "Downloads");
-            
+
             if (downloadsFolder.exists() && downloadsFolder.isDirectory()) {
-                Desktop.getDesktop().open(downloadsFolder); 
+                Desktop.getDesktop().open(downloadsFolder);
             } else {
                 showAlert("Error", "Downloads folder not found in the current directory.");
             }
@@ -203,7 +322,7 @@ public class AdvancedDownloaderGUI extends Application {
             showAlert("Error", "Unable to open Downloads folder.");
         }
     }
-    
+
     private void showAlert(String title, String content) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
@@ -212,91 +331,78 @@ public class AdvancedDownloaderGUI extends Application {
         alert.getDialogPane().getStyleClass().add("custom-alert");
         alert.showAndWait();
     }
-    
-    private void addUrlRow(VBox urlContainer) {
-        if (urlCount < MAX_URL_FIELDS) {
-            HBox urlRow = createUrlRow(urlCount);
-            urlContainer.getChildren().add(urlRow);
-            urlCount++;
-        } else {
-            showAlert("Limit Reached", 
-                     "You can only add a maximum of " + MAX_URL_FIELDS + " URLs.");
-        }
+
+    // Dòng trống mới, bắt đầu sửa URL ngay
+    private void addUrlRow() {
+        DownloadInfo info = new DownloadInfo("");
+        downloads.add(info);
+        int row = downloads.size() - 1;
+        table.scrollTo(row);
+        table.getSelectionModel().select(row);
+        table.layout();
+        table.edit(row, table.getColumns().get(1));
     }
-    
+
     ////////////// note
-    private void deleteUrlRow(HBox urlRow) {
+    private void deleteUrlRow(DownloadInfo info) {
         // Stop và xóa download khỏi danh sách quản lý
-        downloads.removeIf(info -> {
-            if (info.getUrlRow() == urlRow) {
-                info.cancelDownload();
-                return true;
-            }
-            return false;
-        });
+        info.cancel();
+        info.setStatusArea(null);
+        downloads.remove(info);
+    }
 
-        // Xóa UI component
-        VBox parent = (VBox) urlRow.getParent();
-        parent.getChildren().remove(urlRow);
-        urlCount--;
+    private void deleteSelected() {
+        List<DownloadInfo> kept = new ArrayList<>(downloads.size());
+        for (DownloadInfo info : downloads) {
+            if (info.isSelected()) {
+                info.cancel();
+                info.setStatusArea(null);
+            } else {
+                kept.add(info);
+            }
+        }
+        // ObservableList gỡ từng dòng một (dịch cả mảng mỗi lần) kể cả với removeAll/removeIf,
+        // thay cả danh sách một lần thì chỉ O(n) và một sự kiện thay đổi
+        if (kept.size() < downloads.size()) {
+            downloads.setAll(kept);
+        }
     }
-    
+
     ////////////////note
-    
-    private void downloadSelected(VBox urlContainer) {
+
+    private void downloadSelected() {
         downloads.forEach(info -> {
-            HBox urlRow = info.getUrlRow();
-            CheckBox checkBox = (CheckBox) urlRow.getChildren().get(0);
-            if (checkBox.isSelected()) {
-                TextField urlField = (TextField) urlRow.getChildren().get(1);
-                String url = urlField.getText().trim();
-                urlField.setEditable(false);
-                if (!url.isEmpty() && !info.getStartStatus()) {
-                    new Thread(() -> {
-                        try {
-                            info.setCurrentUrl(url);
-                            info.start();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }).start();
-                }
+            if (info.isSelected()) {
+                // download được xếp hàng trên DownloadScheduler dùng chung
+                info.start();
             }
         });
     }
-    
+
     //////////////// note
-    
-    private void pauseSelected(VBox urlContainer) {
+
+    private void pauseSelected() {
         downloads.forEach(info -> {
-            HBox urlRow = info.getUrlRow();
-            CheckBox checkBox = (CheckBox) urlRow.getChildren().get(0);
-            if (checkBox.isSelected() && info.getStartStatus() && info.getRunningFlag()) {
+            if (info.isSelected()) {
                 info.pause();
             }
         });
     }
 
 	////////////////note
-    
-    private void resumeSelected(VBox urlContainer) {
+
+    private void resumeSelected() {
         downloads.forEach(info -> {
-            HBox urlRow = info.getUrlRow();
-            CheckBox checkBox = (CheckBox) urlRow.getChildren().get(0);
-            if (checkBox.isSelected() && info.getStartStatus() && !info.getRunningFlag()) {
+            if (info.isSelected()) {
                 info.resume();
             }
         });
     }
     //////// note: hủy các file đang tải để tránh lỗi luồng
     private void handleShutdown() {
-        downloads.forEach(info -> {
-            if (info.getStartStatus() && info.getRunningFlag()) {
-                info.cancelDownload(); 
-            }
-        });
+        downloads.forEach(DownloadInfo::cancel);
     }
     public static void main(String[] args) {
         launch(args);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,200 @@
+package downloader;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Giới hạn băng thông HTTP theo token bucket hai cấp:
+// - tổng giới hạn (bytes/s) của cả chương trình, chia cho các download đang tải theo trọng số
+// - mỗi download có thể có thêm giới hạn riêng
+// Chia kiểu water-filling: phần download bị giới hạn riêng không dùng hết và phần của download đang nghỉ
+// (tạm dừng, không lấy token quá IDLE_NANOS) được chia lại cho các download còn lại.
+// Luồng tải lấy token theo lô (BATCH_SIZE) thay vì theo từng lần đọc 8 KB.
+// Giới hạn và trọng số có thể đổi khi đang tải, 0 nghĩa là không giới hạn.
+class BandwidthLimiter {
+	static final int BATCH_SIZE = 64 * 1024;
+	// không lấy token trong khoảng này thì coi là đang nghỉ
+	private static final long IDLE_NANOS = 1_000_000_000L;
+	// chu kỳ tính lại để phát hiện download bắt đầu nghỉ
+	private static final long REBALANCE_INTERVAL_NANOS = 500_000_000L;
+	private static final BandwidthLimiter GLOBAL = new BandwidthLimiter();
+
+	private final Map<Share, Boolean> shares = new ConcurrentHashMap<>();
+	private final ReentrantLock rebalanceLock = new ReentrantLock();
+	private volatile long globalRate;
+	private volatile long lastRebalance;
+
+	static BandwidthLimiter getGlobal() {
+		return GLOBAL;
+	}
+
+	void setGlobalRate(long bytesPerSecond) {
+		this.globalRate = Math.max(0, bytesPerSecond);
+		rebalance();
+	}
+
+	long getGlobalRate() {
+		return globalRate;
+	}
+
+	Share register(double weight) {
+		Share share = new Share(weight);
+		shares.put(share, Boolean.TRUE);
+		rebalance();
+		return share;
+	}
+
+	// Tính lại tốc độ của từng download: download đang tải nhận phần của tổng giới hạn theo trọng số,
+	// download có giới hạn riêng thấp hơn phần đó chỉ nhận giới hạn riêng, phần dư chia cho các download khác.
+	// Download đang nghỉ giữ phần theo trọng số của mình nhưng không được tính khi chia
+	private void rebalance() {
+		rebalanceLock.lock();
+		try {
+			long now = System.nanoTime();
+			lastRebalance = now;
+			long global = globalRate;
+			double totalWeight = 0;
+			List<Share> active = new ArrayList<>();
+			for (Share share : shares.keySet()) {
+				totalWeight += share.weight;
+				share.idle = now - share.lastAcquire > IDLE_NANOS;
+				if (!share.idle) {
+					active.add(share);
+				}
+			}
+			if (global <= 0) {
+				for (Share share : shares.keySet()) {
+					share.setEffectiveRate(share.ownRate);
+				}
+				return;
+			}
+			for (Share share : shares.keySet()) {
+				if (share.idle) {
+					share.setEffectiveRate(cap(share.ownRate, (long) (global * share.weight / totalWeight)));
+				}
+			}
+			// download có giới hạn riêng thấp nhất (theo trọng số) trước: nếu nó dùng không hết phần của mình
+			// thì phần còn lại lớn hơn cho các download sau
+			active.sort(Comparator.comparingDouble(share -> share.ownRate > 0 ? share.ownRate / share.weight
+					: Double.POSITIVE_INFINITY));
+			long remaining = global;
+			double remainingWeight = 0;
+			for (Share share : active) {
+				remainingWeight += share.weight;
+			}
+			for (Share share : active) {
+				long rate = cap(share.ownRate, (long) (remaining * share.weight / remainingWeight));
+				share.setEffectiveRate(rate);
+				remaining = Math.max(0, remaining - rate);
+				remainingWeight -= share.weight;
+			}
+		} finally {
+			rebalanceLock.unlock();
+		}
+	}
+
+	private static long cap(long ownRate, long globalShare) {
+		globalShare = Math.max(1, globalShare);
+		return ownRate > 0 ? Math.min(ownRate, globalShare) : globalShare;
+	}
+
+	// Phần băng thông của một download, dùng chung cho mọi luồng tải của download đó
+	class Share {
+		private volatile double weight;
+		private volatile long ownRate;
+		private volatile long lastAcquire = System.nanoTime();
+		// đang nghỉ ở lần rebalance gần nhất
+		private volatile boolean idle;
+		private final ReentrantLock lock = new ReentrantLock();
+		private long effectiveRate;
+		private double tokens;
+		private long lastRefill = System.nanoTime();
+
+		private Share(double weight) {
+			this.weight = weight > 0 ? weight : 1;
+		}
+
+		void setWeight(double weight) {
+			this.weight = weight > 0 ? weight : 1;
+			rebalance();
+		}
+
+		void setRate(long bytesPerSecond) {
+			this.ownRate = Math.max(0, bytesPerSecond);
+			rebalance();
+		}
+
+		long getEffectiveRate() {
+			lock.lock();
+			try {
+				return effectiveRate;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void setEffectiveRate(long rate) {
+			lock.lock();
+			try {
+				refill(System.nanoTime());
+				effectiveRate = rate;
+				// không tích lũy quá 1 giây token
+				tokens = Math.min(tokens, rate);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void refill(long now) {
+			if (effectiveRate > 0) {
+				tokens = Math.min(Math.max(effectiveRate, BATCH_SIZE),
+						tokens + (now - lastRefill) * effectiveRate / 1e9);
+			}
+			lastRefill = now;
+		}
+
+		// Lấy `bytes` token, chờ nếu chưa đủ. Trả về false nếu bị interrupt
+		boolean acquire(long bytes) {
+			long start = System.nanoTime();
+			lastAcquire = start;
+			// tải lại sau khi nghỉ: lấy lại phần của mình ngay, định kỳ phát hiện các download vừa nghỉ
+			if (idle || globalRate > 0 && start - lastRebalance > REBALANCE_INTERVAL_NANOS) {
+				rebalance();
+			}
+			while (true) {
+				long waitNanos;
+				lock.lock();
+				try {
+					if (effectiveRate <= 0) {
+						return true;
+					}
+					long now = System.nanoTime();
+					// đang chờ token cũng là đang tải
+					lastAcquire = now;
+					refill(now);
+					if (tokens >= bytes) {
+						tokens -= bytes;
+						return true;
+					}
+					waitNanos = (long) ((bytes - tokens) * 1e9 / effectiveRate);
+				} finally {
+					lock.unlock();
+				}
+				// chờ bên ngoài lock, giới hạn 100ms để kịp nhận thay đổi giới hạn
+				LockSupport.parkNanos(Math.min(waitNanos, 100_000_000L));
+				if (Thread.currentThread().isInterrupted()) {
+					return false;
+				}
+			}
+		}
+
+		void close() {
+			shares.remove(this);
+			rebalance();
+		}
+	}
+}
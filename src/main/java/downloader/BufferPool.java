@@ -0,0 +1,214 @@
+package downloader;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bộ đệm direct dùng chung cho mọi download, chia theo lớp kích thước (lũy thừa của 2, MIN_SIZE..MAX_SIZE).
+// Tổng dung lượng các bộ đệm đã cấp (đang dùng + rảnh) không vượt quá budget:
+// - hết budget thì bỏ bớt bộ đệm rảnh của lớp khác, rồi thử lớp nhỏ hơn
+// - vẫn không được thì luồng tải chờ đến khi có bộ đệm được trả (backpressure) thay vì cấp phát thêm,
+//   tối đa MAX_WAIT_NANOS: luồng đang tạm dừng giữ bộ đệm của nó, chờ mãi thì download khác bị chặn theo
+// Nhờ vậy bộ nhớ đệm không tăng theo số download × số đoạn và không phải cấp phát lại direct buffer
+// (chậm, chỉ được giải phóng khi GC) cho mỗi đoạn.
+class BufferPool {
+	static final int MIN_SIZE = 4 * 1024;
+	static final int MAX_SIZE = 1024 * 1024;
+	static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+	// bộ đệm nên chứa được khoảng FILL_MILLIS dữ liệu của kết nối
+	private static final int FILL_MILLIS = 250;
+	// chờ quá chừng này thì cấp bộ đệm nhỏ nhất vượt budget, phần vượt được bỏ khi bộ đệm được trả
+	private static final long MAX_WAIT_NANOS = 1_000_000_000L;
+	private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+	private static final BufferPool INSTANCE = new BufferPool(DEFAULT_BUDGET);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	private final ArrayDeque<ByteBuffer>[] free;
+	private long budget;
+	// tổng dung lượng đã cấp và phần đang được dùng
+	private long allocated;
+	private long leasedBytes;
+	private int leased;
+	private long waits;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	BufferPool(long budget) {
+		this.budget = budget;
+		this.free = new ArrayDeque[CLASSES];
+		for (int i = 0; i < CLASSES; i++) {
+			free[i] = new ArrayDeque<>();
+		}
+	}
+
+	static BufferPool getInstance() {
+		return INSTANCE;
+	}
+
+	// Lấy bộ đệm khoảng size byte (có thể nhỏ hơn khi gần hết budget), chờ nếu đã hết budget
+	ByteBuffer acquire(int size) throws InterruptedIOException {
+		lock.lock();
+		try {
+			long remaining = MAX_WAIT_NANOS;
+			while (true) {
+				ByteBuffer buffer = take(classOf(size), true);
+				if (buffer != null) {
+					return buffer;
+				}
+				if (remaining <= 0) {
+					return overdraw();
+				}
+				waits++;
+				remaining = released.awaitNanos(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a buffer");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Lấy bộ đệm đúng lớp của size, null nếu không còn budget (không chờ)
+	ByteBuffer tryAcquire(int size) {
+		lock.lock();
+		try {
+			return take(classOf(size), false);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void release(ByteBuffer buffer) {
+		buffer.clear();
+		lock.lock();
+		try {
+			leased--;
+			leasedBytes -= buffer.capacity();
+			if (allocated > budget) {
+				// budget vừa bị giảm, bỏ bộ đệm này
+				allocated -= buffer.capacity();
+			} else {
+				free[classOf(buffer.capacity())].push(buffer);
+			}
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Kích thước bộ đệm cho kết nối đang tải bytesPerSecond (< 0 nếu chưa đo được):
+	// đủ chứa FILL_MILLIS dữ liệu, nhưng không quá phần chia đều budget cho các kết nối đang dùng
+	int sizeFor(double bytesPerSecond) {
+		long target = bytesPerSecond < 0 ? FileChannelOutput.BUFFER_SIZE : (long) (bytesPerSecond * FILL_MILLIS / 1000);
+		lock.lock();
+		try {
+			target = Math.min(target, budget / (leased + 1));
+		} finally {
+			lock.unlock();
+		}
+		return MIN_SIZE << classOf((int) Math.max(MIN_SIZE, Math.min(MAX_SIZE, target)));
+	}
+
+	// Đổi budget, các bộ đệm thừa được bỏ dần khi được trả lại
+	void setBudget(long budget) {
+		lock.lock();
+		try {
+			this.budget = budget;
+			evict(0, CLASSES);
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getBudget() {
+		lock.lock();
+		try {
+			return budget;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getAllocatedBytes() {
+		lock.lock();
+		try {
+			return allocated;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getLeasedBytes() {
+		lock.lock();
+		try {
+			return leasedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// số lần luồng tải phải chờ vì hết budget
+	long getWaitCount() {
+		lock.lock();
+		try {
+			return waits;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Lớp lớn nhất có kích thước <= size (tối thiểu lớp 0)
+	static int classOf(int size) {
+		int cls = 31 - Integer.numberOfLeadingZeros(Math.max(size, MIN_SIZE) / MIN_SIZE);
+		return Math.min(cls, CLASSES - 1);
+	}
+
+	// Phải giữ lock
+	private ByteBuffer take(int cls, boolean allowSmaller) {
+		for (int c = cls; c >= (allowSmaller ? 0 : cls); c--) {
+			ByteBuffer buffer = free[c].poll();
+			if (buffer == null) {
+				int size = MIN_SIZE << c;
+				if (allocated + size > budget) {
+					// bỏ bộ đệm rảnh của các lớp khác để lấy chỗ
+					evict(size, c);
+				}
+				// budget quá nhỏ vẫn phải cho ít nhất một kết nối chạy
+				if (allocated + size > budget && leased > 0) {
+					continue;
+				}
+				allocated += size;
+				buffer = ByteBuffer.allocateDirect(size);
+			}
+			leased++;
+			leasedBytes += buffer.capacity();
+			return buffer;
+		}
+		return null;
+	}
+
+	// Bộ đệm nhỏ nhất kể cả khi đã hết budget, để download luôn tải được. Phải giữ lock
+	private ByteBuffer overdraw() {
+		ByteBuffer buffer = free[0].poll();
+		if (buffer == null) {
+			allocated += MIN_SIZE;
+			buffer = ByteBuffer.allocateDirect(MIN_SIZE);
+		}
+		leased++;
+		leasedBytes += buffer.capacity();
+		return buffer;
+	}
+
+	// Bỏ bộ đệm rảnh (lớp lớn trước, trừ lớp keep) đến khi còn chỗ cho need byte. Phải giữ lock
+	private void evict(long need, int keep) {
+		for (int c = CLASSES - 1; c >= 0 && allocated + need > budget; c--) {
+			while (c != keep && allocated + need > budget && !free[c].isEmpty()) {
+				allocated -= free[c].pop().capacity();
+			}
+		}
+	}
+}
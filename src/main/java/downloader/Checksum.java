@@ -0,0 +1,167 @@
+package downloader;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+
+// Checksum mong đợi của file (hoặc của một phần file): thuật toán theo tên của MessageDigest và giá trị.
+// Lấy từ fragment của URL (http://host/file.iso#sha256=<hex>), header Digest/Repr-Digest
+// hoặc Content-MD5 của server.
+class Checksum {
+	// thứ tự ưu tiên khi server gửi nhiều thuật toán
+	private static final String[] PREFERRED = { "SHA-512", "SHA-256", "SHA-1", "MD5" };
+
+	private final String algorithm;
+	private final byte[] value;
+
+	Checksum(String algorithm, byte[] value) {
+		this.algorithm = algorithm;
+		this.value = value;
+	}
+
+	String getAlgorithm() {
+		return algorithm;
+	}
+
+	String getHex() {
+		return toHex(value);
+	}
+
+	MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	boolean matches(byte[] digest) {
+		return MessageDigest.isEqual(value, digest);
+	}
+
+	@Override
+	public String toString() {
+		return algorithm + "=" + toHex(value);
+	}
+
+	// "sha-256", "sha256", "SHA256"... -> "SHA-256", null nếu không hỗ trợ
+	static String normalizeAlgorithm(String name) {
+		String n = name.trim().toUpperCase(Locale.ROOT).replace("-", "").replace("_", "");
+		switch (n) {
+		case "MD5":
+			return "MD5";
+		case "SHA":
+		case "SHA1":
+			return "SHA-1";
+		case "SHA256":
+			return "SHA-256";
+		case "SHA512":
+			return "SHA-512";
+		default:
+			return null;
+		}
+	}
+
+	static Checksum of(String algorithm, String hex) {
+		String normalized = normalizeAlgorithm(algorithm);
+		if (normalized == null) {
+			throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm);
+		}
+		return new Checksum(normalized, fromHex(hex));
+	}
+
+	// Fragment dạng "sha256=<hex>", null nếu fragment không phải checksum
+	static Checksum fromFragment(String fragment) {
+		if (fragment == null) {
+			return null;
+		}
+		int eq = fragment.indexOf('=');
+		if (eq < 0 || normalizeAlgorithm(fragment.substring(0, eq)) == null) {
+			return null;
+		}
+		try {
+			return of(fragment.substring(0, eq), fragment.substring(eq + 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	// Chọn checksum mạnh nhất từ các header. Digest (RFC 3230) và Repr-Digest (RFC 9530) luôn là checksum
+	// của cả file kể cả với response 206; Content-MD5 chỉ dùng được khi response chứa cả file (truyền null nếu không)
+	static Checksum fromHeaders(String digest, String reprDigest, String contentMd5) {
+		Checksum best = null;
+		for (String header : new String[] { digest, reprDigest }) {
+			if (header == null) {
+				continue;
+			}
+			for (String item : header.split(",")) {
+				int eq = item.indexOf('=');
+				if (eq < 0) {
+					continue;
+				}
+				String algorithm = normalizeAlgorithm(item.substring(0, eq));
+				// Repr-Digest bọc giá trị trong dấu hai chấm: sha-256=:<base64>:
+				String encoded = item.substring(eq + 1).trim().replace(":", "");
+				if (algorithm != null) {
+					best = stronger(best, decodeBase64(algorithm, encoded));
+				}
+			}
+		}
+		if (contentMd5 != null) {
+			best = stronger(best, decodeBase64("MD5", contentMd5.trim()));
+		}
+		return best;
+	}
+
+	private static Checksum decodeBase64(String algorithm, String encoded) {
+		try {
+			return new Checksum(algorithm, Base64.getDecoder().decode(encoded));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static Checksum stronger(Checksum a, Checksum b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		for (String algorithm : PREFERRED) {
+			if (algorithm.equals(a.algorithm)) {
+				return a;
+			}
+			if (algorithm.equals(b.algorithm)) {
+				return b;
+			}
+		}
+		return a;
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	static byte[] fromHex(String hex) {
+		hex = hex.trim();
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException("Invalid hex checksum: " + hex);
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int hi = Character.digit(hex.charAt(2 * i), 16);
+			int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (hi < 0 || lo < 0) {
+				throw new IllegalArgumentException("Invalid hex checksum: " + hex);
+			}
+			bytes[i] = (byte) ((hi << 4) | lo);
+		}
+		return bytes;
+	}
+}
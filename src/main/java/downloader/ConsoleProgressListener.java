@@ -0,0 +1,50 @@
+package downloader;
+
+import java.io.PrintStream;
+
+// In tiến trình của một download ra console, mỗi dòng có tiền tố để phân biệt các download chạy song song.
+// Tiến trình từng đoạn chỉ in khi bật verbose.
+class ConsoleProgressListener implements DownloadListener {
+	private final PrintStream out;
+	private final String prefix;
+	private final boolean verbose;
+	private volatile boolean success;
+
+	ConsoleProgressListener(PrintStream out, String prefix, boolean verbose) {
+		this.out = out;
+		this.prefix = prefix;
+		this.verbose = verbose;
+	}
+
+	@Override
+	public void statusChanged(String message) {
+		print(message.trim());
+	}
+
+	@Override
+	public void progressChanged(double progress, String summary) {
+		print(summary);
+	}
+
+	@Override
+	public void segmentProgressChanged(int segment, String summary, boolean finished) {
+		if (verbose) {
+			print(summary);
+		}
+	}
+
+	@Override
+	public void downloadFinished(boolean success) {
+		this.success = success;
+		print(success ? "DONE" : "FAILED");
+	}
+
+	boolean isSuccess() {
+		return success;
+	}
+
+	private void print(String line) {
+		// println của PrintStream đã đồng bộ, các dòng của nhiều download không bị trộn lẫn
+		out.println(prefix + line);
+	}
+}
@@ -0,0 +1,174 @@
+package downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Đưa nội dung file cho các PipelineStage theo đúng thứ tự byte trong khi đang tải.
+// Giống checksum cả file của IntegrityVerifier: luồng tải đang ghi đúng ở frontier (phần đầu liên tục đã
+// xử lý) đưa thẳng dữ liệu của mình cho các stage, phần được ghi trước ở phía sau được đọc lại từ file khi
+// frontier tới (mỗi lần tối đa CATCH_UP_LIMIT byte nên thường vẫn còn trong page cache).
+// Tải một luồng thì dữ liệu luôn tới đúng thứ tự, chỉ phải đọc lại phần bị bỏ qua khi có stage chậm (isBacklogged).
+// Khi có checksum từng khối thì chỉ nhận các khối đã kiểm tra đúng (qua written), không nhận content
+class ContentPipeline implements DownloadOutput.ContentListener, DownloadOutput.WriteListener {
+	private static final int CATCH_UP_LIMIT = 4 * 1024 * 1024;
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	private final List<PipelineStage> stages;
+	private final FileChannel reader;
+	private final long fileSize;
+	// stage chỉ được gọi khi giữ lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ByteBuffer readBuffer;
+	private volatile long frontier;
+	// các khoảng đã ghi xuống file, chỉ dùng khi giữ writtenLock
+	private final ReentrantLock writtenLock = new ReentrantLock();
+	private final RangeSet written = new RangeSet();
+	private volatile IOException failure;
+
+	// fileSize < 0: không biết trước kích thước (tải một luồng)
+	ContentPipeline(File file, long fileSize, List<PipelineStage> stages) throws IOException {
+		this.stages = stages;
+		this.reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.fileSize = fileSize;
+		this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	}
+
+	@Override
+	public void content(long position, ByteBuffer data) {
+		if (position == frontier && failure == null && lock.tryLock()) {
+			try {
+				if (position == frontier && !isBacklogged()) {
+					int length = data.remaining();
+					feed(data.duplicate());
+					frontier = position + length;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void written(long position, long length) {
+		writtenLock.lock();
+		try {
+			written.add(position, position + length);
+		} finally {
+			writtenLock.unlock();
+		}
+		if (failure == null && lock.tryLock()) {
+			try {
+				catchUp(CATCH_UP_LIMIT, false);
+			} catch (IOException e) {
+				// lần sau hoặc finish() sẽ đọc lại
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	// Khi tải tiếp: các khoảng đã có trên đĩa, được đọc lại từ file khi frontier tới
+	void addExisting(List<long[]> completedRanges) {
+		writtenLock.lock();
+		try {
+			for (long[] range : completedRanges) {
+				written.add(range[0], range[1]);
+			}
+		} finally {
+			writtenLock.unlock();
+		}
+	}
+
+	// Đưa phần đã ghi nằm ngay sau frontier, tối đa limit byte. Phải giữ lock.
+	// Trên luồng tải (drain = false) dừng khi có stage đang chậm, phần còn lại để lần sau
+	private void catchUp(long limit, boolean drain) throws IOException {
+		long end;
+		writtenLock.lock();
+		try {
+			// không dùng frontier + limit: limit có thể là Long.MAX_VALUE
+			end = frontier + Math.min(written.endOfRangeContaining(frontier) - frontier, limit);
+		} finally {
+			writtenLock.unlock();
+		}
+		long position = frontier;
+		while (position < end && failure == null && (drain || !isBacklogged())) {
+			readBuffer.clear();
+			readBuffer.limit((int) Math.min(readBuffer.capacity(), end - position));
+			int n = reader.read(readBuffer, position);
+			if (n < 0) {
+				throw new IOException("Unexpected end of file at " + position);
+			}
+			readBuffer.flip();
+			feed(readBuffer);
+			position += n;
+			frontier = position;
+		}
+	}
+
+	// Có stage chưa xử lý kịp: luồng tải không đưa thêm để khỏi phải chờ stage
+	private boolean isBacklogged() {
+		for (PipelineStage stage : stages) {
+			if (stage.isBacklogged()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Phải giữ lock. Stage lỗi thì dừng cả pipeline, lỗi được báo ở finish()
+	private void feed(ByteBuffer data) {
+		for (PipelineStage stage : stages) {
+			try {
+				stage.accept(data.duplicate());
+			} catch (IOException | RuntimeException e) {
+				failure = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+				return;
+			}
+		}
+	}
+
+	// Gọi sau khi đã tải (và kiểm tra) xong: xử lý nốt phần còn lại rồi kết thúc các stage
+	void finish() throws IOException {
+		lock.lock();
+		try {
+			long end = fileSize >= 0 ? fileSize : reader.size();
+			writtenLock.lock();
+			try {
+				written.add(frontier, end);
+			} finally {
+				writtenLock.unlock();
+			}
+			catchUp(Long.MAX_VALUE, true);
+			if (failure != null) {
+				throw new IOException("Post-processing failed: " + failure.getMessage(), failure);
+			}
+			for (PipelineStage stage : stages) {
+				stage.finish();
+			}
+		} catch (IOException | RuntimeException e) {
+			abort();
+			throw e;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Download lỗi hoặc bị hủy
+	void abort() {
+		for (PipelineStage stage : stages) {
+			stage.abort();
+		}
+	}
+
+	void close() {
+		try {
+			reader.close();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package downloader;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+
+// Kho file theo nội dung (downloads/.cas): mỗi file tải xong được lưu một lần theo SHA-256 của nó,
+// .cas/sha256/<2 ký tự đầu>/<hex>. File trong downloads/ và object trong kho là hard link của cùng một file
+// nên cùng nội dung tải từ nhiều URL (hoặc tên khác nhau) chỉ chiếm chỗ một lần, và khi đã biết checksum
+// mong đợi thì lấy thẳng từ kho thay vì tải lại. Checksum md5/sha1/sha512 đã kiểm tra được lưu thêm
+// làm tên khác (cũng là hard link) của object.
+// Java không tạo được reflink, kho phải nằm cùng ổ đĩa với downloads/ để tạo được hard link.
+class ContentStore {
+	static final String DIRECTORY = ".cas";
+	static final String ALGORITHM = "SHA-256";
+	private static final String TEMP_SUFFIX = ".cas-tmp";
+
+	private final Path root;
+
+	ContentStore(File root) {
+		this.root = root.toPath();
+	}
+
+	// .cas/sha256/ab/ab12...
+	private Path objectPath(String algorithm, String hex) {
+		String name = hex.toLowerCase();
+		return root.resolve(algorithm.toLowerCase().replace("-", "")).resolve(name.substring(0, 2)).resolve(name);
+	}
+
+	// Đặt object có checksum vào target (hard link, chép nếu không link được). Nội dung object được kiểm tra
+	// lại trước (file trong downloads/ là cùng một file với object nên có thể đã bị sửa), sai thì bỏ object.
+	// Trả về false nếu kho không có
+	boolean materialize(Checksum checksum, File target) throws IOException {
+		Path object = objectPath(checksum.getAlgorithm(), checksum.getHex());
+		if (!Files.isRegularFile(object)) {
+			return false;
+		}
+		if (!checksum.matches(digest(object, checksum.getAlgorithm()))) {
+			Files.deleteIfExists(object);
+			return false;
+		}
+		Path targetPath = target.toPath();
+		if (Files.exists(targetPath) && Files.isSameFile(object, targetPath)) {
+			return true;
+		}
+		Files.createDirectories(targetPath.toAbsolutePath().getParent());
+		try {
+			replaceWithLink(targetPath, object);
+		} catch (IOException | UnsupportedOperationException e) {
+			Path temp = tempPath(targetPath);
+			Files.copy(object, temp, StandardCopyOption.REPLACE_EXISTING);
+			move(temp, targetPath);
+		}
+		return true;
+	}
+
+	// Lưu file vừa tải xong (sha256Hex là SHA-256 của nó). Kho đã có cùng nội dung thì file được thay bằng
+	// hard link tới object có sẵn. verified: checksum khác đã kiểm tra, lưu thêm làm tên của object (có thể null)
+	void add(File file, String sha256Hex, Checksum verified) throws IOException {
+		Path path = file.toPath();
+		Path object = objectPath(ALGORITHM, sha256Hex);
+		Files.createDirectories(object.getParent());
+		try {
+			Files.createLink(object, path);
+		} catch (FileAlreadyExistsException e) {
+			// file trùng nội dung với một file đã tải trước đó (hoặc đang được lưu cùng lúc)
+			if (!Files.isSameFile(object, path)) {
+				// object có thể đã bị sửa qua một file khác trong downloads/ (cùng là hard link) như trong materialize:
+				// sai nội dung thì file vừa tải (đã kiểm tra) thay chỗ object
+				if (Checksum.toHex(digest(object, ALGORITHM)).equalsIgnoreCase(sha256Hex)) {
+					replaceWithLink(path, object);
+				} else {
+					Files.delete(object);
+					Files.createLink(object, path);
+				}
+			}
+		}
+		if (verified != null && !verified.getAlgorithm().equals(ALGORITHM)) {
+			Path alias = objectPath(verified.getAlgorithm(), verified.getHex());
+			Files.createDirectories(alias.getParent());
+			try {
+				Files.createLink(alias, object);
+			} catch (FileAlreadyExistsException e) {
+				// đã lưu từ trước
+			}
+		}
+	}
+
+	// Trước khi tải lại từ đầu vào file: file cũ có thể là hard link tới object trong kho,
+	// ghi đè lên nó sẽ làm hỏng object nên xóa rồi tạo file mới
+	static void detach(File file) throws IOException {
+		Files.deleteIfExists(file.toPath());
+	}
+
+	// Thay target bằng hard link tới object, target luôn đầy đủ kể cả khi bị dừng giữa chừng
+	private static void replaceWithLink(Path target, Path object) throws IOException {
+		Path temp = tempPath(target);
+		Files.deleteIfExists(temp);
+		Files.createLink(temp, object);
+		move(temp, target);
+	}
+
+	private static Path tempPath(Path target) {
+		return target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	static byte[] digest(Path file, String algorithm) throws IOException {
+		MessageDigest digest = new Checksum(algorithm, new byte[0]).newDigest();
+		byte[] buffer = new byte[1024 * 1024];
+		try (InputStream in = Files.newInputStream(file)) {
+			for (int n; (n = in.read(buffer)) > 0;) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		return digest.digest();
+	}
+}
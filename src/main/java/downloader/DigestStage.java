@@ -0,0 +1,32 @@
+package downloader;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.function.Consumer;
+
+// Băm cả file khi đang tải, kết quả (hex) được báo qua result sau khi nhận hết file
+class DigestStage implements PipelineStage {
+	private final String algorithm;
+	private final MessageDigest digest;
+	private final Consumer<String> result;
+
+	// algorithm: md5, sha1, sha256, sha512 (như Checksum.normalizeAlgorithm)
+	DigestStage(String algorithm, Consumer<String> result) {
+		this.algorithm = Checksum.normalizeAlgorithm(algorithm);
+		if (this.algorithm == null) {
+			throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+		}
+		this.digest = new Checksum(this.algorithm, new byte[0]).newDigest();
+		this.result = result;
+	}
+
+	@Override
+	public void accept(ByteBuffer data) {
+		digest.update(data);
+	}
+
+	@Override
+	public void finish() {
+		result.accept(algorithm + "=" + Checksum.toHex(digest.digest()));
+	}
+}
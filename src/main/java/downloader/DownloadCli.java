@@ -0,0 +1,202 @@
+package downloader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+// Chạy downloader không cần giao diện (cron, container), không nạp lớp JavaFX nào.
+// Đọc danh sách URL từ file (mỗi dòng một download, bỏ qua dòng trống và dòng bắt đầu bằng #, "-" là stdin;
+// một dòng có thể là file .meta4 hoặc nhiều URL mirror của cùng một file cách nhau bởi khoảng trắng),
+// các download chạy song song qua DownloadScheduler, tiến trình in ra stdout.
+// Mã thoát: 0 nếu mọi download thành công, 1 nếu có download lỗi, 2 nếu sai tham số.
+public class DownloadCli {
+	private static final String USAGE = "Usage: DownloadCli [options] <url-list-file | ->\n"
+			+ "  each line: URL, several mirror URLs of one file, .torrent or .meta4 file\n"
+			+ "  --parallel N      max concurrent downloads (default 4)\n"
+			+ "  --connections N   max connections for all downloads (default 16)\n"
+			+ "  --segments N      segments per download (default: learned per host)\n"
+			+ "  --retries N       retries of failed segments per download (default 20)\n"
+			+ "  --limit BYTES     global bandwidth limit in bytes/s (default unlimited)\n"
+			+ "  --torrent-limit DOWN:UP\n"
+			+ "                    download/upload limits in bytes/s shared by all torrents (0 = unlimited)\n"
+			+ "  --buffer-memory BYTES\n"
+			+ "                    memory for I/O buffers of all downloads (default 64 MB)\n"
+			+ "  --harvest REGEX   treat each line as a listing page and download the linked files matching REGEX\n"
+			+ "  --follow REGEX    with --harvest: also crawl links matching REGEX as pages (rel=\"next\" always)\n"
+			+ "  --max-pages N     with --harvest: pages to read at most (default 100)\n"
+			+ "  --crawl-threads N with --harvest: pages read in parallel (default 4)\n"
+			+ "  --extract DIR     extract .gz/.zip/.tar/.tar.gz downloads into DIR while downloading\n"
+			+ "  --digest ALG      print the md5/sha1/sha256/sha512 of each download, computed while downloading\n"
+			+ "  --cas             keep downloads in a content-addressed store (downloads/.cas), hard-linking\n"
+			+ "                    duplicates and skipping files whose checksum is already stored\n"
+			+ "  --mmap            write files through memory-mapped windows\n"
+			+ "  --force           download again even if the file has not changed\n"
+			+ "  --virtual         run tasks on virtual threads (Java 21+)\n"
+			+ "  --verbose         print per-segment progress";
+
+	public static void main(String[] args) throws Exception {
+		DownloadScheduler scheduler = DownloadScheduler.getInstance();
+		int segments = 0;
+		int retries = -1;
+		File extractDirectory = null;
+		boolean contentStore = false;
+		String digest = null;
+		boolean verbose = false;
+		boolean force = false;
+		OutputMode outputMode = OutputMode.FILE_CHANNEL;
+		String listFile = null;
+		Pattern harvestPattern = null;
+		Pattern followPattern = null;
+		int maxPages = PageHarvester.DEFAULT_MAX_PAGES;
+		int crawlThreads = PageHarvester.DEFAULT_PARALLELISM;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--parallel":
+					scheduler.setMaxConcurrentDownloads(Integer.parseInt(args[++i]));
+					break;
+				case "--connections":
+					scheduler.setMaxConnections(Integer.parseInt(args[++i]));
+					break;
+				case "--segments":
+					segments = Integer.parseInt(args[++i]);
+					break;
+				case "--retries":
+					retries = Integer.parseInt(args[++i]);
+					break;
+				case "--limit":
+					AdvancedDownloader.setGlobalBandwidthLimit(Long.parseLong(args[++i]));
+					break;
+				case "--torrent-limit":
+					String[] limits = args[++i].split(":", 2);
+					AdvancedDownloader.setTorrentRateLimits(Long.parseLong(limits[0]),
+							limits.length > 1 ? Long.parseLong(limits[1]) : 0);
+					break;
+				case "--buffer-memory":
+					AdvancedDownloader.setBufferMemoryBudget(Long.parseLong(args[++i]));
+					break;
+				case "--harvest":
+					harvestPattern = Pattern.compile(args[++i]);
+					break;
+				case "--follow":
+					followPattern = Pattern.compile(args[++i]);
+					break;
+				case "--max-pages":
+					maxPages = Integer.parseInt(args[++i]);
+					break;
+				case "--crawl-threads":
+					crawlThreads = Integer.parseInt(args[++i]);
+					break;
+				case "--extract":
+					extractDirectory = new File(args[++i]);
+					break;
+				case "--digest":
+					digest = args[++i];
+					if (Checksum.normalizeAlgorithm(digest) == null) {
+						throw new IllegalArgumentException("Unsupported digest algorithm: " + digest);
+					}
+					break;
+				case "--mmap":
+					outputMode = OutputMode.MEMORY_MAPPED;
+					break;
+				case "--cas":
+					contentStore = true;
+					break;
+				case "--force":
+					force = true;
+					break;
+				case "--virtual":
+					scheduler.setExecutionMode(ExecutionMode.VIRTUAL);
+					break;
+				case "--verbose":
+					verbose = true;
+					break;
+				default:
+					if (args[i].startsWith("--") || listFile != null) {
+						throw new IllegalArgumentException("Unknown argument: " + args[i]);
+					}
+					listFile = args[i];
+				}
+			}
+			if (listFile == null) {
+				throw new IllegalArgumentException("Missing URL list file");
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException | UnsupportedOperationException e) {
+			System.err.println(e.getMessage() != null ? e.getMessage() : "Missing option value");
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		List<String> urls = readUrls(listFile);
+		if (harvestPattern != null) {
+			PageHarvester harvester = new PageHarvester(HttpClientTransport.getInstance(), harvestPattern);
+			harvester.setPagePattern(followPattern);
+			harvester.setMaxPages(maxPages);
+			harvester.setParallelism(crawlThreads);
+			urls = harvester.harvest(urls, System.out::println);
+			System.out.println(urls.size() + " files found");
+		}
+		List<ConsoleProgressListener> listeners = new ArrayList<>();
+		List<Future<?>> jobs = new ArrayList<>();
+		for (int i = 0; i < urls.size(); i++) {
+			String url = urls.get(i);
+			ConsoleProgressListener listener = new ConsoleProgressListener(System.out, "[" + (i + 1) + "] ", verbose);
+			AdvancedDownloader downloader = new AdvancedDownloader(listener);
+			downloader.setOutputMode(outputMode);
+			downloader.setSkipUnchanged(!force);
+			downloader.setContentStore(contentStore);
+			if (segments > 0) {
+				downloader.setSegmentCount(segments);
+			}
+			if (retries >= 0) {
+				downloader.setMaxRetries(retries);
+			}
+			downloader.setExtractDirectory(extractDirectory);
+			downloader.setPipelineDigest(digest);
+			System.out.println("[" + (i + 1) + "] " + url);
+			listeners.add(listener);
+			jobs.add(downloader.enqueueDownload(url));
+		}
+
+		// các luồng của scheduler là daemon, luồng main phải đợi mọi download xong
+		int failed = 0;
+		for (int i = 0; i < jobs.size(); i++) {
+			try {
+				jobs.get(i).get();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+			if (!listeners.get(i).isSuccess()) {
+				failed++;
+			}
+		}
+		System.out.println((urls.size() - failed) + "/" + urls.size() + " downloads completed");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	private static List<String> readUrls(String listFile) throws IOException {
+		List<String> urls = new ArrayList<>();
+		try (BufferedReader reader = "-".equals(listFile)
+				? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+				: Files.newBufferedReader(Paths.get(listFile), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					urls.add(line);
+				}
+			}
+		}
+		return urls;
+	}
+}
@@ -1,53 +1,174 @@
 package downloader;
 
-import javafx.scene.layout.*;
+import java.util.concurrent.Future;
 
+import javafx.application.Platform;
+import javafx.beans.property.*;
+import javafx.scene.control.TextArea;
+
+// Một dòng trong bảng download của GUI. Khi chưa chạy chỉ gồm URL và vài property để hiển thị:
+// AdvancedDownloader chỉ được tạo khi DownloadScheduler thực sự chạy download (hàng đợi chỉ giữ DownloadInfo)
+// và được bỏ khi download kết thúc, ProgressView được tạo khi bấm tải. Bảng nhờ vậy giữ được hàng chục nghìn dòng.
+// Mọi hàm gọi trên luồng FX, trừ run (luồng của scheduler) và update (qua Platform.runLater của ProgressView).
 class DownloadInfo {
-    private final AdvancedDownloader downloader;
-    private final HBox urlRow;
-    private String currentUrl;
-
-    public DownloadInfo(AdvancedDownloader downloader, HBox urlRow) {
-        this.downloader = downloader;
-        this.urlRow = urlRow;
-    }
-    
-    public void start() {
-		downloader.startDownload(currentUrl);
-	}
-    
-    public boolean getStartStatus() {
-    	return downloader.getStartStatus();
-	}
-    
-    public void pause() {
-    	downloader.pauseDownload();
-	}
-    
-    public void resume() {
-    	downloader.resumeDownload();
-	}
-    
-    
-    public boolean getRunningFlag() {
-    	return downloader.getRunningFlag();
-	}
-    
-    public void cancelDownload() {
-		this.downloader.cancelDownload();
-	}
-    
-    public HBox getUrlRow() {
-        return urlRow;
-    }
-
-    public String getCurrentUrl() {
-        return currentUrl;
-    }
-
-    public void setCurrentUrl(String url) {
-        this.currentUrl = url;
-    }
-   
-    
-}
\ No newline at end of file
+	enum State {
+		NEW(""), QUEUED("Queued"), RUNNING("Downloading"), PAUSED("Paused"), COMPLETED("Completed"),
+		FAILED("Failed"), CANCELLED("Cancelled");
+
+		private final String label;
+
+		State(String label) {
+			this.label = label;
+		}
+
+		boolean isActive() {
+			return this == QUEUED || this == RUNNING || this == PAUSED;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	private final StringProperty url;
+	// ô chọn để tải/tạm dừng/xóa nhiều dòng một lúc
+	private final BooleanProperty selected = new SimpleBooleanProperty();
+	private final ReadOnlyObjectWrapper<State> state = new ReadOnlyObjectWrapper<>(State.NEW);
+	private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(0);
+	private final ReadOnlyStringWrapper status = new ReadOnlyStringWrapper("");
+	private Future<?> job;
+	private ProgressView view;
+	private TextArea statusArea;
+	private volatile AdvancedDownloader downloader;
+	private volatile boolean cancelled;
+
+	DownloadInfo(String url) {
+		this.url = new SimpleStringProperty(url);
+	}
+
+	// Xếp hàng trên DownloadScheduler dùng chung, tải lại được dòng bị lỗi hoặc đã hủy (tiếp từ journal)
+	void start() {
+		String input = url.get().trim();
+		if (input.isEmpty() || state.get().isActive() || state.get() == State.COMPLETED) {
+			return;
+		}
+		cancelled = false;
+		view = new ProgressView(this);
+		view.setStatusArea(statusArea);
+		progress.set(0);
+		status.set("");
+		state.set(State.QUEUED);
+		job = DownloadScheduler.getInstance().submitDownload(() -> run(input));
+	}
+
+	// Chạy trên luồng của scheduler khi download đến lượt
+	private void run(String input) {
+		if (cancelled) {
+			return;
+		}
+		AdvancedDownloader downloader = new AdvancedDownloader(view);
+		this.downloader = downloader;
+		Platform.runLater(() -> {
+			if (state.get() == State.QUEUED) {
+				state.set(State.RUNNING);
+			}
+		});
+		try {
+			if (!cancelled) {
+				downloader.startDownload(input);
+			}
+		} finally {
+			this.downloader = null;
+		}
+	}
+
+	void pause() {
+		AdvancedDownloader downloader = this.downloader;
+		if (state.get() == State.RUNNING && downloader != null) {
+			downloader.pauseDownload();
+			state.set(State.PAUSED);
+		}
+	}
+
+	void resume() {
+		AdvancedDownloader downloader = this.downloader;
+		if (state.get() == State.PAUSED && downloader != null) {
+			downloader.resumeDownload();
+			state.set(State.RUNNING);
+		}
+	}
+
+	void cancel() {
+		if (!state.get().isActive()) {
+			return;
+		}
+		cancelled = true;
+		if (job != null) {
+			job.cancel(true);
+		}
+		AdvancedDownloader downloader = this.downloader;
+		if (downloader != null) {
+			downloader.cancelDownload();
+		}
+		state.set(State.CANCELLED);
+	}
+
+	// Từ ProgressView của lần tải hiện tại (bỏ qua lần tải trước nếu dòng đã được tải lại)
+	void update(ProgressView source, double progress, String status, Boolean result) {
+		if (source != view) {
+			return;
+		}
+		if (progress >= 0) {
+			this.progress.set(progress);
+		}
+		this.status.set(status);
+		if (result != null && state.get().isActive()) {
+			state.set(result ? State.COMPLETED : State.FAILED);
+		}
+	}
+
+	// Hiển thị log chi tiết của dòng vào statusArea (null: thôi hiển thị)
+	void setStatusArea(TextArea statusArea) {
+		this.statusArea = statusArea;
+		if (view != null) {
+			view.setStatusArea(statusArea);
+		}
+	}
+
+	boolean isEditable() {
+		return state.get() == State.NEW;
+	}
+
+	StringProperty urlProperty() {
+		return url;
+	}
+
+	BooleanProperty selectedProperty() {
+		return selected;
+	}
+
+	ReadOnlyObjectProperty<State> stateProperty() {
+		return state.getReadOnlyProperty();
+	}
+
+	ReadOnlyDoubleProperty progressProperty() {
+		return progress.getReadOnlyProperty();
+	}
+
+	ReadOnlyStringProperty statusProperty() {
+		return status.getReadOnlyProperty();
+	}
+
+	State getState() {
+		return state.get();
+	}
+
+	boolean isSelected() {
+		return selected.get();
+	}
+
+	void setSelected(boolean selected) {
+		this.selected.set(selected);
+	}
+}
@@ -0,0 +1,194 @@
+package downloader;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// File ghi chú đặt cạnh file đang tải (<tên file>.journal), lưu các khoảng byte đã ghi xong
+// để có thể tải tiếp phần còn thiếu sau khi chương trình bị tắt hoặc bị hủy.
+// Chỉ dùng lại khi URL, kích thước và ETag/Last-Modified của server không đổi.
+class DownloadJournal {
+	static final String EXTENSION = ".journal";
+
+	private final File journalFile;
+	private final String url;
+	private final long fileSize;
+	private final String etag;
+	private final String lastModified;
+	private final RangeSet completed = new RangeSet();
+	// dùng ReentrantLock thay vì synchronized để virtual thread không bị ghim vào carrier khi chờ
+	private final ReentrantLock lock = new ReentrantLock();
+	private long flushIntervalMillis;
+	private long lastFlushTime;
+	private boolean dirty;
+	private boolean closed;
+
+	DownloadJournal(File outputFile, String url, long fileSize, String etag, String lastModified,
+			long flushIntervalMillis) {
+		this.journalFile = journalFileFor(outputFile);
+		this.url = url;
+		this.fileSize = fileSize;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.lastFlushTime = System.currentTimeMillis();
+	}
+
+	static File journalFileFor(File outputFile) {
+		return new File(outputFile.getPath() + EXTENSION);
+	}
+
+	// Đọc journal cũ nếu còn khớp với server, ngược lại trả về null
+	static DownloadJournal resume(File outputFile, String url, long fileSize, String etag, String lastModified,
+			long flushIntervalMillis) {
+		File journalFile = journalFileFor(outputFile);
+		if (!journalFile.exists() || !outputFile.exists() || outputFile.length() != fileSize) {
+			return null;
+		}
+		// không có ETag hay Last-Modified thì không thể biết file trên server có đổi hay không
+		if (etag == null && lastModified == null) {
+			return null;
+		}
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(journalFile)) {
+			props.load(in);
+		} catch (IOException e) {
+			return null;
+		}
+		if (!url.equals(props.getProperty("url"))
+				|| !String.valueOf(fileSize).equals(props.getProperty("size"))
+				|| !Objects.equals(etag, props.getProperty("etag"))
+				|| !Objects.equals(lastModified, props.getProperty("lastModified"))) {
+			return null;
+		}
+		DownloadJournal journal = new DownloadJournal(outputFile, url, fileSize, etag, lastModified,
+				flushIntervalMillis);
+		try {
+			String ranges = props.getProperty("ranges", "");
+			for (String range : ranges.split(",")) {
+				if (range.isEmpty()) {
+					continue;
+				}
+				int dash = range.indexOf('-');
+				journal.markCompleted(Long.parseLong(range.substring(0, dash)),
+						Long.parseLong(range.substring(dash + 1)));
+			}
+		} catch (RuntimeException e) {
+			return null;
+		}
+		return journal;
+	}
+
+	void setFlushInterval(long flushIntervalMillis) {
+		lock.lock();
+		try {
+			this.flushIntervalMillis = flushIntervalMillis;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Đánh dấu [start, end) đã được ghi xuống file, gộp với các khoảng liền kề
+	void markCompleted(long start, long end) {
+		lock.lock();
+		try {
+			if (closed || start >= end) {
+				return;
+			}
+			completed.add(start, end);
+			dirty = true;
+			if (System.currentTimeMillis() - lastFlushTime >= flushIntervalMillis) {
+				try {
+					flush();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long completedBytes() {
+		lock.lock();
+		try {
+			return completed.totalBytes();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Các khoảng [start, end) đã ghi xong
+	List<long[]> completedRanges() {
+		lock.lock();
+		try {
+			return completed.ranges();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Các khoảng [start, end] (bao gồm end) chưa tải
+	List<long[]> missingRanges() {
+		lock.lock();
+		try {
+			return completed.gaps(fileSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Ghi ra file tạm rồi đổi tên để journal không bao giờ bị ghi dở
+	void flush() throws IOException {
+		lock.lock();
+		try {
+			lastFlushTime = System.currentTimeMillis();
+			if (closed || (!dirty && journalFile.exists())) {
+				return;
+			}
+			Properties props = new Properties();
+			props.setProperty("url", url);
+			props.setProperty("size", String.valueOf(fileSize));
+			if (etag != null) {
+				props.setProperty("etag", etag);
+			}
+			if (lastModified != null) {
+				props.setProperty("lastModified", lastModified);
+			}
+			StringBuilder ranges = new StringBuilder();
+			for (long[] range : completed.ranges()) {
+				if (ranges.length() > 0) {
+					ranges.append(',');
+				}
+				ranges.append(range[0]).append('-').append(range[1]);
+			}
+			props.setProperty("ranges", ranges.toString());
+
+			File tmpFile = new File(journalFile.getPath() + ".tmp");
+			try (OutputStream out = new FileOutputStream(tmpFile)) {
+				props.store(out, null);
+			}
+			try {
+				Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			dirty = false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Xóa journal khi file đã tải xong, các lần ghi muộn sau đó bị bỏ qua
+	void delete() {
+		lock.lock();
+		try {
+			closed = true;
+			journalFile.delete();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package downloader;
+
+// Nhận thông báo từ AdvancedDownloader. Engine không phụ thuộc JavaFX:
+// GUI dùng ProgressView, chế độ dòng lệnh dùng ConsoleProgressListener.
+// Các hàm được gọi từ luồng tải hoặc luồng monitor, cài đặt phải tự chuyển sang luồng giao diện nếu cần.
+public interface DownloadListener {
+	DownloadListener NONE = new DownloadListener() {
+	};
+
+	// Thông báo trạng thái (bắt đầu, lỗi, hoàn tất...)
+	default void statusChanged(String message) {
+	}
+
+	// Tiến trình tổng của download: progress từ 0 đến 1, summary là dòng mô tả tốc độ, thời gian còn lại
+	default void progressChanged(double progress, String summary) {
+	}
+
+	// Tiến trình của một đoạn, finished = true khi đoạn đã tải xong
+	default void segmentProgressChanged(int segment, String summary, boolean finished) {
+	}
+
+	// Gọi một lần khi download kết thúc (xong, lỗi hoặc bị hủy)
+	default void downloadFinished(boolean success) {
+	}
+}
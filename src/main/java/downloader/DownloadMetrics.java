@@ -0,0 +1,156 @@
+package downloader;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Số liệu của một download. Các bộ đếm dùng LongAdder để nhiều luồng tải cộng cùng lúc
+// mà không tranh nhau một biến như AtomicLong.
+class DownloadMetrics implements DownloadMetricsMXBean {
+	private final MetricsRegistry registry;
+	private final String url;
+	private final String fileName;
+	private final long fileSize;
+	private final long startNanos = System.nanoTime();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+	// chỉ các đoạn đang tải, đoạn xong (hoặc dừng) được bỏ để map không lớn dần theo số lần cắt đoạn
+	private final Map<Integer, SegmentStats> segments = new ConcurrentHashMap<>();
+	private volatile long resumedBytes;
+	private volatile MirrorSet mirrors;
+
+	DownloadMetrics(MetricsRegistry registry, String url, String fileName, long fileSize) {
+		this.registry = registry;
+		this.url = url;
+		this.fileName = fileName;
+		this.fileSize = fileSize;
+	}
+
+	void addBytes(long count) {
+		bytes.add(count);
+		registry.addBytes(count);
+	}
+
+	// Số byte trong đoạn đã được ghi trước đó
+	void setResumedBytes(long resumedBytes) {
+		this.resumedBytes = resumedBytes;
+	}
+
+	// Các mirror của download tải từ nhiều nguồn
+	void setMirrors(MirrorSet mirrors) {
+		this.mirrors = mirrors;
+	}
+
+	SegmentStats segment(int segmentId) {
+		return segments.computeIfAbsent(segmentId, id -> new SegmentStats());
+	}
+
+	// Luồng tải trả đoạn (xong, lỗi hoặc bị hủy)
+	void removeSegment(int segmentId) {
+		segments.remove(segmentId);
+	}
+
+	void recordConnectLatency(long millis) {
+		connectLatency.record(millis);
+		registry.recordConnectLatency(millis);
+	}
+
+	void recordRetry() {
+		retries.increment();
+		registry.recordRetry();
+	}
+
+	void recordError() {
+		errors.increment();
+		registry.recordError();
+	}
+
+	@Override
+	public String getUrl() {
+		return url;
+	}
+
+	@Override
+	public String getFileName() {
+		return fileName;
+	}
+
+	@Override
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	@Override
+	public long getCompletedBytes() {
+		return resumedBytes + bytes.sum();
+	}
+
+	@Override
+	public long getBytesDownloaded() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getAverageBytesPerSecond() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds > 0 ? bytes.sum() / seconds : 0;
+	}
+
+	@Override
+	public int getActiveSegments() {
+		return segments.size();
+	}
+
+	@Override
+	public Map<String, Long> getSegmentBytesPerSecond() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<Integer, SegmentStats> entry : segments.entrySet()) {
+			result.put(String.valueOf(entry.getKey() + 1), (long) entry.getValue().getBytesPerSecond());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getMirrorBytesPerSecond() {
+		MirrorSet mirrors = this.mirrors;
+		return mirrors != null ? mirrors.throughput(startNanos) : new TreeMap<>();
+	}
+
+	@Override
+	public Map<String, Long> getConnectLatencyHistogram() {
+		return connectLatency.snapshot();
+	}
+
+	@Override
+	public double getMeanConnectLatencyMillis() {
+		return connectLatency.getMeanMillis();
+	}
+
+	@Override
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return errors.sum();
+	}
+
+	// Số liệu của một đoạn đang tải: số byte và thời gian tải
+	static class SegmentStats {
+		private final LongAdder bytes = new LongAdder();
+		private final long startNanos = System.nanoTime();
+
+		void addBytes(long count) {
+			bytes.add(count);
+		}
+
+		double getBytesPerSecond() {
+			double seconds = (System.nanoTime() - startNanos) / 1e9;
+			return seconds > 0 ? bytes.sum() / seconds : 0;
+		}
+	}
+}
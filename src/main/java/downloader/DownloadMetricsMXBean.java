@@ -0,0 +1,36 @@
+package downloader;
+
+import java.util.Map;
+
+// Số liệu của một download, đăng ký JMX dưới tên downloader:type=Download,id=<n>
+public interface DownloadMetricsMXBean {
+	String getUrl();
+
+	String getFileName();
+
+	long getFileSize();
+
+	// byte đã có trên đĩa, kể cả phần tải từ lần trước (journal)
+	long getCompletedBytes();
+
+	// byte tải được trong lần chạy này
+	long getBytesDownloaded();
+
+	double getAverageBytesPerSecond();
+
+	int getActiveSegments();
+
+	// id đoạn đang tải -> tốc độ trung bình (bytes/s)
+	Map<String, Long> getSegmentBytesPerSecond();
+
+	// URL mirror -> tốc độ trung bình (bytes/s), rỗng khi tải từ một nguồn
+	Map<String, Long> getMirrorBytesPerSecond();
+
+	Map<String, Long> getConnectLatencyHistogram();
+
+	double getMeanConnectLatencyMillis();
+
+	long getRetryCount();
+
+	long getErrorCount();
+}
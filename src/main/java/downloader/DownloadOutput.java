@@ -0,0 +1,52 @@
+package downloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+// File đích của một download tải phân đoạn, dùng chung cho mọi luồng tải.
+// Mỗi luồng mở một Sink và ghi tuần tự từ vị trí bắt đầu của đoạn mình tải.
+// Cài đặt: FileChannelOutput (ghi theo vị trí) và MappedFileOutput (ghi vào vùng nhớ ánh xạ file)
+interface DownloadOutput extends Closeable {
+
+	// Được gọi sau mỗi lần dữ liệu được ghi xuống file, dùng để cập nhật journal
+	interface WriteListener {
+		void written(long position, long length);
+	}
+
+	// Nhận dữ liệu ngay trước khi được ghi (đã bỏ phần discard), theo thứ tự tăng dần trong mỗi Sink.
+	// data chỉ được đọc, không được giữ lại sau khi hàm trả về. Dùng để tính checksum khi đang tải
+	interface ContentListener {
+		void content(long position, ByteBuffer data);
+	}
+
+	// Bộ ghi của một luồng tải
+	interface Sink extends Closeable {
+		// Đọc tối đa max byte từ src. Trả về -1 nếu hết dữ liệu
+		int read(ReadableByteChannel src, long max) throws IOException;
+
+		// Bỏ n byte cuối vừa đọc (khi chúng không còn thuộc đoạn này), chúng không được ghi xuống file
+		void discard(int n);
+
+		long position();
+
+		// Vị trí sau byte cuối cùng đã thực sự được ghi xuống file (position() gồm cả phần còn trong bộ đệm)
+		long writtenPosition();
+
+		void flush() throws IOException;
+	}
+
+	// Cấp phát trước kích thước file
+	void setLength(long length) throws IOException;
+
+	void setWriteListener(WriteListener writeListener);
+
+	void setContentListener(ContentListener contentListener);
+
+	// Có thể chờ khi bộ nhớ đệm dùng chung đã hết (BufferPool)
+	Sink openSink(long position) throws IOException;
+
+	// Đẩy mọi dữ liệu đã ghi xuống đĩa, gọi khi download hoàn tất
+	void force() throws IOException;
+}
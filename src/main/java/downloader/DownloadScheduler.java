@@ -0,0 +1,225 @@
+package downloader;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bộ lập lịch dùng chung cho mọi AdvancedDownloader trong chương trình:
+// - downloadPool: giới hạn số download chạy cùng lúc, các download thừa xếp hàng đợi
+// - connectionPool: giới hạn tổng số kết nối (luồng tải phân đoạn) của cả chương trình
+// - monitorPool: một luồng duy nhất chạy các tác vụ thông báo định kỳ
+// Số luồng tải của mỗi download được chia đều theo số download đang chạy
+//
+// Ở chế độ VIRTUAL mỗi tác vụ chạy trên một virtual thread, giới hạn được giữ bằng
+// Semaphore (fair) nên các tác vụ thừa vẫn xếp hàng theo thứ tự gửi vào.
+// Chọn chế độ bằng setExecutionMode hoặc -Ddownloader.executionMode=virtual
+class DownloadScheduler {
+	private static final int DEFAULT_MAX_DOWNLOADS = 4;
+	private static final int DEFAULT_MAX_CONNECTIONS = 16;
+	private static final DownloadScheduler INSTANCE = new DownloadScheduler(DEFAULT_MAX_DOWNLOADS,
+			DEFAULT_MAX_CONNECTIONS);
+
+	private final ThreadPoolExecutor downloadPool;
+	private final ThreadPoolExecutor connectionPool;
+	private final ScheduledExecutorService monitorPool;
+	private final ResizableSemaphore downloadPermits;
+	private final ResizableSemaphore connectionPermits;
+	private ExecutorService virtualExecutor;
+	private volatile ExecutionMode executionMode = ExecutionMode.PLATFORM;
+	// số luồng tải mà mỗi download yêu cầu
+	private final Map<SegmentManager, Integer> requestedWorkers = new LinkedHashMap<>();
+	private int maxConnections;
+
+	private DownloadScheduler(int maxDownloads, int maxConnections) {
+		this.maxConnections = maxConnections;
+		this.downloadPool = newPool(maxDownloads, "download");
+		this.connectionPool = newPool(maxConnections, "segment");
+		this.monitorPool = Executors.newSingleThreadScheduledExecutor(threadFactory("monitor"));
+		this.downloadPermits = new ResizableSemaphore(maxDownloads);
+		this.connectionPermits = new ResizableSemaphore(maxConnections);
+		if ("virtual".equalsIgnoreCase(System.getProperty("downloader.executionMode"))) {
+			try {
+				setExecutionMode(ExecutionMode.VIRTUAL);
+			} catch (UnsupportedOperationException e) {
+				System.err.println(e.getMessage() + ", falling back to platform threads");
+			}
+		}
+	}
+
+	static DownloadScheduler getInstance() {
+		return INSTANCE;
+	}
+
+	private static ThreadPoolExecutor newPool(int size, String name) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), threadFactory(name));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() chỉ có từ Java 21, gọi qua reflection
+	// để chương trình vẫn chạy được trên JDK cũ ở chế độ PLATFORM
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or newer (running " + System.getProperty("java.version") + ")");
+		}
+	}
+
+	// Các tác vụ đã gửi trước đó vẫn chạy tiếp ở chế độ cũ
+	synchronized void setExecutionMode(ExecutionMode mode) {
+		if (mode == ExecutionMode.VIRTUAL && virtualExecutor == null) {
+			virtualExecutor = newVirtualThreadExecutor();
+		}
+		this.executionMode = mode;
+	}
+
+	ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	Future<?> submitDownload(Runnable job) {
+		if (executionMode == ExecutionMode.VIRTUAL) {
+			return virtualExecutor.submit(withPermit(downloadPermits, job));
+		}
+		return downloadPool.submit(job);
+	}
+
+	Future<?> submitSegmentWorker(Runnable worker) {
+		if (executionMode == ExecutionMode.VIRTUAL) {
+			return virtualExecutor.submit(withPermit(connectionPermits, worker));
+		}
+		return connectionPool.submit(worker);
+	}
+
+	// Luồng monitor chỉ hẹn giờ, ở chế độ VIRTUAL công việc được chuyển sang virtual thread
+	ScheduledFuture<?> scheduleMonitor(Runnable task, long periodMillis) {
+		Runnable tick = task;
+		if (executionMode == ExecutionMode.VIRTUAL) {
+			ExecutorService executor = virtualExecutor;
+			tick = () -> executor.execute(task);
+		}
+		return monitorPool.scheduleAtFixedRate(tick, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static Runnable withPermit(Semaphore permits, Runnable task) {
+		return () -> {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			try {
+				task.run();
+			} finally {
+				permits.release();
+			}
+		};
+	}
+
+	// Đăng ký một download đang tải phân đoạn, chia lại số luồng cho mọi download
+	synchronized void register(SegmentManager manager, int workers) {
+		requestedWorkers.put(manager, workers);
+		rebalance();
+	}
+
+	// Đổi số luồng yêu cầu của một download đang đăng ký. Gọi từ tuner hoặc setSegmentCount có thể đến sau
+	// unregister (download vừa kết thúc), khi đó bỏ qua để không giữ lại manager đã xong trong requestedWorkers
+	synchronized void update(SegmentManager manager, int workers) {
+		if (requestedWorkers.replace(manager, workers) != null) {
+			rebalance();
+		}
+	}
+
+	synchronized void unregister(SegmentManager manager) {
+		if (requestedWorkers.remove(manager) != null) {
+			rebalance();
+		}
+	}
+
+	synchronized void setMaxConcurrentDownloads(int maxDownloads) {
+		resize(downloadPool, maxDownloads);
+		downloadPermits.resize(maxDownloads);
+	}
+
+	synchronized void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+		resize(connectionPool, maxConnections);
+		connectionPermits.resize(maxConnections);
+		rebalance();
+	}
+
+	private static void resize(ThreadPoolExecutor pool, int size) {
+		if (size > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(size);
+			pool.setCorePoolSize(size);
+		} else {
+			pool.setCorePoolSize(size);
+			pool.setMaximumPoolSize(size);
+		}
+	}
+
+	// Mỗi download nhận tối đa maxConnections / số download đang tải (ít nhất 1 luồng)
+	private void rebalance() {
+		if (requestedWorkers.isEmpty()) {
+			return;
+		}
+		int share = Math.max(1, maxConnections / requestedWorkers.size());
+		for (Map.Entry<SegmentManager, Integer> entry : requestedWorkers.entrySet()) {
+			entry.getKey().setTargetWorkers(Math.min(entry.getValue(), share));
+		}
+	}
+
+	int getQueuedDownloads() {
+		return downloadPool.getQueue().size() + downloadPermits.getQueueLength();
+	}
+
+	int getActiveDownloads() {
+		return downloadPool.getActiveCount() + downloadPermits.inUse();
+	}
+
+	int getQueuedSegments() {
+		return connectionPool.getQueue().size() + connectionPermits.getQueueLength();
+	}
+
+	int getActiveConnections() {
+		return connectionPool.getActiveCount() + connectionPermits.inUse();
+	}
+
+	// Semaphore fair có thể đổi số permit khi đang chạy
+	private static class ResizableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		private int size;
+
+		ResizableSemaphore(int size) {
+			super(size, true);
+			this.size = size;
+		}
+
+		synchronized void resize(int newSize) {
+			if (newSize > size) {
+				release(newSize - size);
+			} else if (newSize < size) {
+				reducePermits(size - newSize);
+			}
+			size = newSize;
+		}
+
+		synchronized int inUse() {
+			return Math.max(0, size - availablePermits());
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package downloader;
+
+// Kiểu luồng chạy download, luồng tải phân đoạn và luồng quan sát
+enum ExecutionMode {
+	// thread pool thông thường, số luồng bằng giới hạn của scheduler
+	PLATFORM,
+	// mỗi tác vụ một virtual thread (Java 21+), giới hạn bằng Semaphore thay vì kích thước pool
+	VIRTUAL
+}
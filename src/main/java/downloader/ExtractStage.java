@@ -0,0 +1,101 @@
+package downloader;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+// Giải nén file .gz, .zip, .tar, .tar.gz (.tgz) vào một thư mục ngay khi đang tải
+class ExtractStage extends StreamingStage {
+	enum Format {
+		GZIP, ZIP, TAR, TAR_GZIP
+	}
+
+	private final Format format;
+	private final Path directory;
+	// tên file sau khi giải nén .gz
+	private final String gunzipName;
+
+	ExtractStage(Format format, File directory, String gunzipName) {
+		this.format = format;
+		this.directory = directory.toPath().toAbsolutePath().normalize();
+		this.gunzipName = gunzipName;
+	}
+
+	// Chọn định dạng theo đuôi file, null nếu không phải file nén được hỗ trợ
+	static ExtractStage forFileName(String fileName, File directory) {
+		String lower = fileName.toLowerCase();
+		if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+			return new ExtractStage(Format.TAR_GZIP, directory, null);
+		}
+		if (lower.endsWith(".tar")) {
+			return new ExtractStage(Format.TAR, directory, null);
+		}
+		if (lower.endsWith(".zip")) {
+			return new ExtractStage(Format.ZIP, directory, null);
+		}
+		if (lower.endsWith(".gz")) {
+			return new ExtractStage(Format.GZIP, directory, fileName.substring(0, fileName.length() - 3));
+		}
+		return null;
+	}
+
+	@Override
+	protected void process(InputStream in) throws IOException {
+		Files.createDirectories(directory);
+		switch (format) {
+		case GZIP:
+			extract(new GZIPInputStream(in, 64 * 1024), gunzipName, false);
+			break;
+		case ZIP:
+			ZipInputStream zip = new ZipInputStream(in);
+			for (ZipEntry entry; (entry = zip.getNextEntry()) != null;) {
+				extract(zip, entry.getName(), entry.isDirectory());
+			}
+			break;
+		case TAR:
+		case TAR_GZIP:
+			TarArchiveInputStream tar = new TarArchiveInputStream(
+					format == Format.TAR_GZIP ? new GZIPInputStream(in, 64 * 1024) : in);
+			for (TarArchiveEntry entry; (entry = tar.getNextEntry()) != null;) {
+				// chỉ giải nén file thường và thư mục, bỏ qua link và file đặc biệt
+				if (entry.isFile() || entry.isDirectory()) {
+					extract(tar, entry.getName(), entry.isDirectory());
+				}
+			}
+			break;
+		}
+	}
+
+	private void extract(InputStream entryStream, String name, boolean isDirectory) throws IOException {
+		Path target = resolve(name);
+		if (target.equals(directory)) {
+			// entry "./" của thư mục gốc (tar -C dir .), chỉ bỏ qua nếu là thư mục
+			if (isDirectory) {
+				return;
+			}
+			throw new IOException("Archive entry is not a file: " + name);
+		}
+		if (isDirectory) {
+			Files.createDirectories(target);
+			return;
+		}
+		Files.createDirectories(target.getParent());
+		Files.copy(entryStream, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// Không cho phép entry ghi ra ngoài thư mục đích (../, đường dẫn tuyệt đối)
+	private Path resolve(String name) throws IOException {
+		Path target = directory.resolve(name).normalize();
+		if (!target.startsWith(directory)) {
+			throw new IOException("Archive entry outside target directory: " + name);
+		}
+		return target;
+	}
+}
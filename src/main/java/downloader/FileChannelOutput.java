@@ -0,0 +1,231 @@
+package downloader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+// Lớp ghi file mặc định, dùng chung cho mọi luồng tải của một download:
+// - một FileChannel duy nhất, ghi theo vị trí (write(ByteBuffer, position)) nên không cần seek
+// - mỗi luồng có một Sink giữ direct buffer, gom các lần đọc nhỏ thành một lần ghi lớn
+// - direct buffer lấy từ BufferPool dùng chung. Với bufferSize = 0 (ADAPTIVE), kích thước bộ đệm
+//   của mỗi Sink đi theo tốc độ đo được của kết nối và phần budget còn lại, đổi sau mỗi lần ghi
+class FileChannelOutput implements DownloadOutput {
+	static final int BUFFER_SIZE = 256 * 1024;
+	static final int ADAPTIVE = 0;
+	private static final int ALIGNMENT = 4096;
+	// đo tốc độ ít nhất trong khoảng này trước khi đổi kích thước bộ đệm
+	private static final long RESIZE_INTERVAL_NANOS = 500_000_000L;
+
+	private final FileChannel channel;
+	private final int bufferSize;
+	private final BufferPool pool = BufferPool.getInstance();
+	private volatile WriteListener writeListener;
+	private volatile ContentListener contentListener;
+
+	FileChannelOutput(File file, boolean truncate) throws IOException {
+		this(file, truncate, BUFFER_SIZE);
+	}
+
+	FileChannelOutput(File file, boolean truncate, int bufferSize) throws IOException {
+		this.bufferSize = bufferSize;
+		if (truncate) {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+		} else {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.READ);
+		}
+	}
+
+	@Override
+	public void setLength(long length) throws IOException {
+		if (channel.size() > length) {
+			channel.truncate(length);
+		} else if (channel.size() < length) {
+			channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+		}
+	}
+
+	@Override
+	public void setWriteListener(WriteListener writeListener) {
+		this.writeListener = writeListener;
+	}
+
+	@Override
+	public void setContentListener(ContentListener contentListener) {
+		this.contentListener = contentListener;
+	}
+
+	// Chờ nếu BufferPool đã hết budget
+	@Override
+	public Sink openSink(long position) throws IOException {
+		int size = bufferSize == ADAPTIVE ? pool.sizeFor(-1) : bufferSize;
+		return new BufferedSink(pool.acquire(size), position);
+	}
+
+	// Chép thẳng từ channel nguồn vào file, trả về số byte đã chép (nhỏ hơn count nghĩa là hết dữ liệu)
+	long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+		long transferred = channel.transferFrom(src, position, count);
+		notifyWritten(position, transferred);
+		return transferred;
+	}
+
+	@Override
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		long start = position;
+		try {
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			throw new WriteFailedException("Could not write to file at " + position + ": " + e.getMessage(), e);
+		}
+		notifyWritten(start, position - start);
+	}
+
+	private void notifyContent(long position, ByteBuffer data) {
+		ContentListener listener = contentListener;
+		if (listener != null && data.hasRemaining()) {
+			listener.content(position, data.asReadOnlyBuffer());
+		}
+	}
+
+	private void notifyWritten(long position, long length) {
+		WriteListener listener = writeListener;
+		if (listener != null && length > 0) {
+			listener.written(position, length);
+		}
+	}
+
+	// Bộ đệm ghi của một luồng tải, ghi tuần tự từ vị trí position
+	private class BufferedSink implements Sink {
+		private ByteBuffer buffer;
+		private long flushedPosition;
+		// lần ghi trước lỗi giữa chừng: phần đã báo cho listener không được ghi/báo lại
+		private boolean failed;
+		// mốc đo tốc độ cho lần đổi kích thước bộ đệm tiếp theo
+		private long rateStartNanos = System.nanoTime();
+		private long rateStartPosition;
+
+		private BufferedSink(ByteBuffer buffer, long position) {
+			this.buffer = buffer;
+			this.flushedPosition = position;
+			this.rateStartPosition = position;
+			buffer.clear();
+			buffer.limit(fillLimit());
+		}
+
+		// Lần ghi đầu được cắt để các lần ghi sau bắt đầu ở vị trí chia hết cho ALIGNMENT
+		private int fillLimit() {
+			int misalignment = (int) (flushedPosition % ALIGNMENT);
+			return buffer.capacity() - misalignment;
+		}
+
+		// Đọc vào bộ đệm, ghi ra file khi bộ đệm đầy
+		@Override
+		public int read(ReadableByteChannel src, long max) throws IOException {
+			checkFailed();
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int limit = buffer.limit();
+			if (buffer.remaining() > max) {
+				buffer.limit(buffer.position() + (int) max);
+			}
+			try {
+				return src.read(buffer);
+			} finally {
+				buffer.limit(limit);
+			}
+		}
+
+		@Override
+		public void discard(int n) {
+			buffer.position(buffer.position() - n);
+		}
+
+		@Override
+		public long position() {
+			return flushedPosition + buffer.position();
+		}
+
+		@Override
+		public long writtenPosition() {
+			return flushedPosition;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			checkFailed();
+			buffer.flip();
+			int length = buffer.remaining();
+			notifyContent(flushedPosition, buffer);
+			try {
+				write(buffer, flushedPosition);
+			} catch (IOException e) {
+				failed = true;
+				buffer.clear();
+				throw e;
+			}
+			flushedPosition += length;
+			buffer.clear();
+			if (bufferSize == ADAPTIVE) {
+				resize();
+			}
+			buffer.limit(fillLimit());
+		}
+
+		private void checkFailed() throws IOException {
+			if (failed) {
+				throw new WriteFailedException("Earlier write at " + flushedPosition + " failed", null);
+			}
+		}
+
+		// Đổi sang bộ đệm cỡ khác khi tốc độ đo được cần cỡ khác, không chờ nếu pool hết budget
+		private void resize() {
+			long now = System.nanoTime();
+			long elapsed = now - rateStartNanos;
+			if (elapsed < RESIZE_INTERVAL_NANOS) {
+				return;
+			}
+			double rate = (flushedPosition - rateStartPosition) * 1e9 / elapsed;
+			rateStartNanos = now;
+			rateStartPosition = flushedPosition;
+			int size = pool.sizeFor(rate);
+			if (size == buffer.capacity()) {
+				return;
+			}
+			ByteBuffer resized = pool.tryAcquire(size);
+			if (resized != null) {
+				pool.release(buffer);
+				buffer = resized;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (buffer == null) {
+				return;
+			}
+			try {
+				if (!failed) {
+					flush();
+				}
+			} finally {
+				pool.release(buffer);
+				buffer = null;
+			}
+		}
+	}
+}
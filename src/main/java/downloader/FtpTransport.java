@@ -0,0 +1,439 @@
+package downloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLStreamHandler;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.ftp.FTPSClient;
+
+// Tải qua FTP/FTPS (commons-net) với cùng giao diện như HTTP, để tải phân đoạn, journal, checksum...
+// dùng chung cho cả hai. Mỗi đoạn dùng một phiên (kết nối điều khiển + kết nối dữ liệu) riêng,
+// bắt đầu tại vị trí của đoạn bằng REST. Phiên đã đăng nhập được giữ lại trong pool theo server
+// và dùng lại cho đoạn/file sau, không phải kết nối và đăng nhập lại.
+// Server giới hạn số kết nối mỗi client (421) thì số phiên tới server đó bị giới hạn theo số đang mở,
+// luồng tải chờ phiên rảnh thay vì báo lỗi. Giới hạn được nới thêm một sau mỗi LIMIT_PROBE_MILLIS
+// (server có thể chỉ tạm thời đầy), bị 421 lại thì quay về số đang mở.
+class FtpTransport implements HttpTransport {
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final Duration SOCKET_TIMEOUT = Duration.ofSeconds(60);
+	// phiên rảnh lâu hơn thời gian này được kiểm tra bằng NOOP trước khi dùng lại
+	private static final long VALIDATE_AFTER_MILLIS = 10000;
+	private static final int MAX_IDLE_SESSIONS = 8;
+	private static final long SESSION_WAIT_SECONDS = 120;
+	// thời gian giữ giới hạn học được từ 421 trước khi thử mở thêm một phiên
+	private static final long LIMIT_PROBE_MILLIS = 60000;
+	private static final FtpTransport INSTANCE = new FtpTransport();
+
+	// java.net.URL không có handler cho ftps, URL ftps được tạo với handler này (không mở kết nối qua URL)
+	private static final URLStreamHandler FTPS_HANDLER = new URLStreamHandler() {
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException {
+			throw new IOException("Use FtpTransport for " + url);
+		}
+
+		@Override
+		protected int getDefaultPort() {
+			return FTP.DEFAULT_PORT;
+		}
+	};
+
+	private final Map<String, SessionPool> pools = new ConcurrentHashMap<>();
+
+	static FtpTransport getInstance() {
+		return INSTANCE;
+	}
+
+	static boolean isFtp(URL url) {
+		String protocol = url.getProtocol().toLowerCase();
+		return protocol.equals("ftp") || protocol.equals("ftps");
+	}
+
+	// Như new URL(spec) nhưng nhận cả ftps://
+	static URL toUrl(String spec) throws IOException {
+		if (spec.regionMatches(true, 0, "ftps:", 0, 5)) {
+			return new URL(null, spec, FTPS_HANDLER);
+		}
+		return new URL(spec);
+	}
+
+	// URL bỏ mật khẩu, dùng cho journal, thông báo và JMX
+	static String redact(URL url) {
+		String userInfo = url.getUserInfo();
+		if (userInfo == null || userInfo.indexOf(':') < 0) {
+			return url.toString();
+		}
+		String user = userInfo.substring(0, userInfo.indexOf(':'));
+		return url.toString().replace(userInfo + "@", user + "@");
+	}
+
+	// SIZE/MDTM hoặc MLST (một lệnh cho cả kích thước và thời gian sửa đổi).
+	// Thời gian sửa đổi đóng vai trò Last-Modified để journal biết file trên server có đổi hay không
+	@Override
+	public RemoteFile probe(URL url) throws IOException {
+		Session session = borrow(url);
+		boolean ok = false;
+		try {
+			FTPClient client = session.client;
+			String path = path(url);
+			long size = -1;
+			String lastModified = null;
+			boolean features = client.features();
+			if (features && client.hasFeature("MLST")) {
+				FTPFile file = client.mlistFile(path);
+				if (file != null) {
+					size = file.getSize();
+					if (file.getTimestamp() != null) {
+						lastModified = String.valueOf(file.getTimestamp().getTimeInMillis());
+					}
+				}
+			}
+			if (size < 0) {
+				String reply = client.getSize(path);
+				if (reply == null) {
+					throw new IOException("FTP server cannot size " + path + ": " + client.getReplyString().trim());
+				}
+				size = Long.parseLong(reply.trim());
+				lastModified = client.getModificationTime(path);
+			}
+			// server không hỗ trợ FEAT (rất cũ) thường vẫn hỗ trợ REST, lỗi sẽ lộ ra khi mở đoạn
+			boolean acceptRanges = size > 0 && (!features || client.hasFeature("REST"));
+			ok = true;
+			return new RemoteFile(url, size, acceptRanges, null, lastModified, null, null, null);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid SIZE reply for " + redact(url));
+		} finally {
+			session.pool.release(session, ok);
+		}
+	}
+
+	// FTP không có If-Range, thay đổi của file được phát hiện lúc probe (MLST/MDTM) nên ifRange bị bỏ qua
+	@Override
+	public InputStream openStream(URL url, long start, long end, String ifRange) throws IOException {
+		Session session = borrow(url);
+		try {
+			FTPClient client = session.client;
+			client.setRestartOffset(start);
+			InputStream data = client.retrieveFileStream(path(url));
+			if (data == null) {
+				throw new IOException("FTP server refused " + redact(url) + ": " + client.getReplyString().trim());
+			}
+			return new DataStream(data, session, end >= 0 ? end - start + 1 : -1);
+		} catch (IOException | RuntimeException e) {
+			session.pool.release(session, false);
+			throw e;
+		}
+	}
+
+	private Session borrow(URL url) throws IOException {
+		String key = url.getProtocol().toLowerCase() + "://" + (url.getUserInfo() != null ? url.getUserInfo() + "@" : "")
+				+ url.getHost() + ":" + port(url);
+		return pools.computeIfAbsent(key, k -> new SessionPool(url)).borrow();
+	}
+
+	private static int port(URL url) {
+		return url.getPort() > 0 ? url.getPort() : FTP.DEFAULT_PORT;
+	}
+
+	// Đường dẫn trong URL tương đối với thư mục đăng nhập (RFC 1738), "ftp://host//abs" là đường dẫn tuyệt đối
+	private static String path(URL url) throws IOException {
+		String path = url.getPath();
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return decode(path);
+	}
+
+	private static String decode(String value) throws UnsupportedEncodingException {
+		return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+	}
+
+	// Các phiên tới một server (cùng giao thức, tài khoản, host, port)
+	private static class SessionPool {
+		private final URL url;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition released = lock.newCondition();
+		private final Deque<Session> idle = new ArrayDeque<>();
+		// số phiên đang mở (rảnh hoặc đang dùng) và giới hạn học được khi server từ chối thêm kết nối
+		private int open;
+		private int limit = Integer.MAX_VALUE;
+		// lần cuối giới hạn bị đặt hoặc nới
+		private long limitChanged;
+
+		SessionPool(URL url) {
+			this.url = url;
+		}
+
+		Session borrow() throws IOException {
+			while (true) {
+				Session session;
+				lock.lock();
+				try {
+					long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SESSION_WAIT_SECONDS);
+					while (idle.isEmpty() && open >= limit && !raiseLimit()) {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							throw new IOException("Timed out waiting for an FTP session to " + url.getHost());
+						}
+						// thức dậy kịp lúc để nới giới hạn
+						released.awaitNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(LIMIT_PROBE_MILLIS)));
+					}
+					session = idle.pollFirst();
+					if (session == null) {
+						open++;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for an FTP session");
+				} finally {
+					lock.unlock();
+				}
+				if (session != null) {
+					if (System.currentTimeMillis() - session.lastUsed < VALIDATE_AFTER_MILLIS || validate(session)) {
+						return session;
+					}
+					// phiên đã bị server đóng, mở phiên mới thay thế
+				}
+				try {
+					return new Session(this, connect());
+				} catch (TooManyConnectionsException e) {
+					lock.lock();
+					try {
+						open--;
+						if (open == 0) {
+							throw e;
+						}
+						// không mở quá số phiên server đang chấp nhận, chờ phiên rảnh
+						limit = open;
+						limitChanged = System.currentTimeMillis();
+					} finally {
+						lock.unlock();
+					}
+				} catch (IOException | RuntimeException e) {
+					lock.lock();
+					try {
+						open--;
+						released.signal();
+					} finally {
+						lock.unlock();
+					}
+					throw e;
+				}
+			}
+		}
+
+		// Giới hạn đã giữ đủ lâu thì cho mở thêm một phiên. Phải giữ lock
+		private boolean raiseLimit() {
+			long now = System.currentTimeMillis();
+			if (limit == Integer.MAX_VALUE || now - limitChanged < LIMIT_PROBE_MILLIS) {
+				return false;
+			}
+			limit++;
+			limitChanged = now;
+			return true;
+		}
+
+		// Trả phiên về pool, reusable = false thì đóng phiên
+		void release(Session session, boolean reusable) {
+			boolean close = !reusable;
+			lock.lock();
+			try {
+				if (reusable && idle.size() < MAX_IDLE_SESSIONS) {
+					session.lastUsed = System.currentTimeMillis();
+					idle.addFirst(session);
+				} else {
+					open--;
+					close = true;
+				}
+				released.signal();
+			} finally {
+				lock.unlock();
+			}
+			if (close) {
+				disconnect(session.client);
+			}
+		}
+
+		private boolean validate(Session session) {
+			try {
+				if (session.client.sendNoOp()) {
+					return true;
+				}
+			} catch (IOException e) {
+			}
+			disconnect(session.client);
+			return false;
+		}
+
+		private FTPClient connect() throws IOException {
+			boolean secure = url.getProtocol().equalsIgnoreCase("ftps");
+			FTPClient client = secure ? new FTPSClient(false) : new FTPClient();
+			client.setConnectTimeout(CONNECT_TIMEOUT);
+			client.setDataTimeout(SOCKET_TIMEOUT);
+			client.setAutodetectUTF8(true);
+			try {
+				try {
+					client.connect(url.getHost(), port(url));
+				} catch (FTPConnectionClosedException e) {
+					// server chào bằng 421 rồi đóng kết nối
+					throw new TooManyConnectionsException(client.getReplyString());
+				}
+				client.setSoTimeout((int) SOCKET_TIMEOUT.toMillis());
+				int reply = client.getReplyCode();
+				if (!FTPReply.isPositiveCompletion(reply)) {
+					throw new IOException("FTP server refused connection: " + client.getReplyString().trim());
+				}
+				String user = "anonymous";
+				String password = "anonymous@";
+				String userInfo = url.getUserInfo();
+				if (userInfo != null) {
+					int colon = userInfo.indexOf(':');
+					user = decode(colon >= 0 ? userInfo.substring(0, colon) : userInfo);
+					password = colon >= 0 ? decode(userInfo.substring(colon + 1)) : "";
+				}
+				boolean loggedIn;
+				try {
+					loggedIn = client.login(user, password);
+				} catch (FTPConnectionClosedException e) {
+					throw new TooManyConnectionsException(client.getReplyString());
+				}
+				if (!loggedIn) {
+					String message = client.getReplyString();
+					if (message.toLowerCase().contains("too many")) {
+						throw new TooManyConnectionsException(message);
+					}
+					throw new IOException("FTP login failed for " + user + ": " + message.trim());
+				}
+				if (secure) {
+					// mã hóa cả kết nối dữ liệu
+					((FTPSClient) client).execPBSZ(0);
+					((FTPSClient) client).execPROT("P");
+				}
+				client.enterLocalPassiveMode();
+				client.setFileType(FTP.BINARY_FILE_TYPE);
+				return client;
+			} catch (IOException | RuntimeException e) {
+				disconnect(client);
+				throw e;
+			}
+		}
+
+		private static void disconnect(FTPClient client) {
+			try {
+				if (client.isConnected()) {
+					client.disconnect();
+				}
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static class Session {
+		final SessionPool pool;
+		final FTPClient client;
+		long lastUsed;
+
+		Session(SessionPool pool, FTPClient client) {
+			this.pool = pool;
+			this.client = client;
+		}
+	}
+
+	// Server trả 421 (hoặc từ chối đăng nhập vì quá nhiều kết nối)
+	private static class TooManyConnectionsException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		TooManyConnectionsException(String reply) {
+			super("FTP server has too many connections: " + (reply != null ? reply.trim() : "421"));
+		}
+	}
+
+	// Luồng dữ liệu của một lệnh RETR, đọc tối đa remaining byte (-1 = đến hết file).
+	// FTP không có vị trí kết thúc: khi đóng trước khi hết file thì kết nối dữ liệu bị đóng giữa chừng
+	// và server có thể trả 426/451, 226 hoặc cả 426 lẫn 226 cho lệnh RETR. Không biết còn phản hồi nào chưa đọc
+	// nên phiên đó bị đóng, chỉ phiên đã nhận hết file mới được dùng lại
+	private static class DataStream extends FilterInputStream {
+		private final Session session;
+		private long remaining;
+		// đã đọc tới cuối file (server đóng kết nối dữ liệu)
+		private boolean eof;
+		private boolean closed;
+
+		DataStream(InputStream in, Session session, long remaining) {
+			super(in);
+			this.session = session;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			if (remaining > 0 && len > remaining) {
+				len = (int) remaining;
+			}
+			int n = super.read(b, off, len);
+			if (n < 0) {
+				eof = true;
+			}
+			if (n > 0 && remaining > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			throw new IOException("skip not supported");
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			boolean reusable = false;
+			try {
+				if (!eof && remaining == 0) {
+					// đoạn kết thúc đúng ở cuối file thì server đóng kết nối dữ liệu ngay sau byte cuối
+					eof = in.read() < 0;
+				}
+				super.close();
+				if (eof) {
+					// đọc phản hồi kết thúc của RETR (226)
+					reusable = session.client.completePendingCommand();
+				}
+			} catch (IOException e) {
+				// phiên hỏng, không dùng lại
+			} finally {
+				session.pool.release(session, reusable);
+			}
+		}
+	}
+}
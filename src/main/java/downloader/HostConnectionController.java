@@ -0,0 +1,267 @@
+package downloader;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+// Số kết nối tối ưu cho từng host, học dần theo kiểu AIMD và lưu lại (downloads/.host-limits)
+// để lần tải sau tới cùng host bắt đầu luôn từ giá trị đã học:
+// - tổng tốc độ còn tăng khi thêm một kết nối thì thêm tiếp (additive increase)
+// - server trả 429/503, reset kết nối hoặc tốc độ mỗi kết nối tụt mạnh thì giảm một nửa (multiplicative decrease)
+// - thêm kết nối mà tổng tốc độ không tăng thì quay về số cũ, một lúc sau mới thử lại
+class HostConnectionController {
+	static final String FILE_NAME = ".host-limits";
+	static final int DEFAULT_CONNECTIONS = 4;
+	static final int MAX_CONNECTIONS = 32;
+	// kết nối vừa thêm phải làm tổng tốc độ tăng ít nhất MIN_GAIN
+	private static final double MIN_GAIN = 0.05;
+	// số kết nối không đổi mà tổng tốc độ và tốc độ mỗi kết nối cùng giảm quá MAX_DROP: server đang bóp băng thông
+	private static final double MAX_DROP = 0.3;
+	// số lần đo ổn định trước khi thử thêm kết nối lần nữa
+	private static final int PROBE_AFTER = 15;
+	private static final HostConnectionController INSTANCE = new HostConnectionController(
+			new File("downloads", FILE_NAME));
+
+	private final File limitsFile;
+	private final ReentrantLock lock = new ReentrantLock();
+	// host:port -> số kết nối đã học, đọc từ file lần đầu dùng
+	private Properties limits;
+
+	HostConnectionController(File limitsFile) {
+		this.limitsFile = limitsFile;
+	}
+
+	static HostConnectionController getInstance() {
+		return INSTANCE;
+	}
+
+	static String hostKey(URL url) {
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		return url.getHost().toLowerCase() + ":" + port;
+	}
+
+	// Số kết nối đã học cho host của url, DEFAULT_CONNECTIONS nếu chưa từng tải
+	int limitFor(URL url) {
+		lock.lock();
+		try {
+			String value = load().getProperty(hostKey(url));
+			return value != null ? Math.max(1, Math.min(MAX_CONNECTIONS, Integer.parseInt(value.trim())))
+					: DEFAULT_CONNECTIONS;
+		} catch (NumberFormatException e) {
+			return DEFAULT_CONNECTIONS;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void learned(String host, int connections) {
+		lock.lock();
+		try {
+			if (!String.valueOf(connections).equals(load().setProperty(host, String.valueOf(connections)))) {
+				save();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Bắt đầu điều chỉnh số kết nối của một download, apply đặt số kết nối mới cho download đó
+	Tuner start(URL url, IntConsumer apply) {
+		return new Tuner(hostKey(url), limitFor(url), apply);
+	}
+
+	// Lỗi cho thấy server không muốn thêm kết nối: 429/503 hoặc server reset kết nối.
+	// Các lỗi mạng khác (timeout, mất mạng, đổi Wi-Fi...) không nói gì về server nên không làm giảm giới hạn đã lưu
+	static boolean isThrottle(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof HttpStatusException) {
+				return ((HttpStatusException) cause).isThrottled();
+			}
+			if (isConnectionReset(cause)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// "Connection reset" / "Connection reset by peer": server gửi RST. Tùy phiên bản JDK và kiểu socket
+	// (Socket, SocketChannel của HttpClient) lỗi này là SocketException hoặc IOException nên chỉ xét nội dung
+	private static boolean isConnectionReset(Throwable e) {
+		String message = e.getMessage();
+		return e instanceof IOException && message != null && message.toLowerCase().startsWith("connection reset");
+	}
+
+	private Properties load() {
+		if (limits == null) {
+			limits = new Properties();
+			if (limitsFile.exists()) {
+				try (InputStream in = new FileInputStream(limitsFile)) {
+					limits.load(in);
+				} catch (IOException | IllegalArgumentException e) {
+					// file hỏng thì học lại từ đầu
+					limits.clear();
+				}
+			}
+		}
+		return limits;
+	}
+
+	// Ghi ra file tạm rồi đổi tên như MetadataCache
+	private void save() throws IOException {
+		File parent = limitsFile.getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		File tmpFile = new File(limitsFile.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmpFile)) {
+			limits.store(out, null);
+		}
+		try {
+			Files.move(tmpFile.toPath(), limitsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), limitsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// Bộ điều chỉnh của một download. sample() được gọi định kỳ trên luồng monitor,
+	// throttled() từ các luồng tải khi gặp lỗi kiểu isThrottle
+	class Tuner {
+		private final String host;
+		private final IntConsumer apply;
+		private final AtomicBoolean throttled = new AtomicBoolean();
+		private int limit;
+		// không tự thêm kết nối quá mức này (thấp hơn số kết nối lần gần nhất bị server từ chối)
+		private int ceiling = MAX_CONNECTIONS;
+		// số kết nối đã chạy đủ một lần đo mà không bị server từ chối, được lưu khi download kết thúc
+		// (limit có thể chưa kịp đo hoặc bị giảm vì hết việc ở cuối download)
+		private int confirmed;
+		private long lastBytes = -1;
+		private long lastNanos;
+		// tốc độ (bytes/s) tốt nhất ở số kết nối hiện tại, < 0 nếu chưa đo
+		private double bestRate = -1;
+		private double bestPerConnection;
+		// vừa thêm một kết nối, lần đo tới quyết định giữ hay bỏ
+		private boolean increased;
+		// bỏ qua lần đo ngay sau khi đổi số kết nối (kết nối mới còn đang mở)
+		private boolean warmingUp;
+		private int stableSamples;
+
+		private Tuner(String host, int limit, IntConsumer apply) {
+			this.host = host;
+			this.limit = limit;
+			this.confirmed = limit;
+			this.apply = apply;
+		}
+
+		int getLimit() {
+			return limit;
+		}
+
+		void throttled() {
+			throttled.set(true);
+		}
+
+		// bytes: tổng số byte đã tải, connections: số kết nối đang tải thực sự
+		// (nhỏ hơn limit khi scheduler chia bớt hoặc đã gần tải xong)
+		void sample(long bytes, int connections) {
+			long now = System.nanoTime();
+			if (lastBytes < 0) {
+				lastBytes = bytes;
+				lastNanos = now;
+				return;
+			}
+			double rate = (bytes - lastBytes) * 1e9 / Math.max(1, now - lastNanos);
+			lastBytes = bytes;
+			lastNanos = now;
+			if (throttled.getAndSet(false) && !(warmingUp && !increased)) {
+				// ngay sau khi giảm thì lỗi vẫn có thể đến từ các kết nối mở trước đó, bỏ qua
+				decrease();
+				return;
+			}
+			if (warmingUp) {
+				warmingUp = false;
+				return;
+			}
+			if (connections < limit) {
+				// không đủ việc hoặc scheduler không cho thêm luồng, số đo không dùng để so sánh được.
+				// Kết nối vừa thêm không chạy được thì bỏ để không lưu một giới hạn chưa từng đạt tới
+				if (increased) {
+					increased = false;
+					change(limit - 1);
+				}
+				return;
+			}
+			double perConnection = rate / connections;
+			if (!increased || rate > bestRate * (1 + MIN_GAIN)) {
+				confirmed = limit;
+			}
+			if (bestRate < 0) {
+				bestRate = rate;
+				bestPerConnection = perConnection;
+				increase();
+			} else if (increased) {
+				increased = false;
+				if (rate > bestRate * (1 + MIN_GAIN)) {
+					bestRate = rate;
+					bestPerConnection = perConnection;
+					increase();
+				} else {
+					// kết nối vừa thêm không giúp gì
+					change(limit - 1);
+					stableSamples = 0;
+				}
+			} else if (rate < bestRate * (1 - MAX_DROP) && perConnection < bestPerConnection * (1 - MAX_DROP)) {
+				decrease();
+			} else if (++stableSamples >= PROBE_AFTER) {
+				stableSamples = 0;
+				ceiling = Math.max(ceiling, limit + 1);
+				bestRate = rate;
+				bestPerConnection = perConnection;
+				increase();
+			}
+		}
+
+		// Tạm dừng hoặc bị giới hạn băng thông: tốc độ lúc này không phản ánh server, đo lại từ đầu
+		void reset() {
+			lastBytes = -1;
+			increased = false;
+		}
+
+		// Lưu số kết nối đã học khi download kết thúc
+		void finish() {
+			learned(host, confirmed);
+		}
+
+		private void increase() {
+			if (limit < Math.min(ceiling, MAX_CONNECTIONS)) {
+				increased = true;
+				change(limit + 1);
+			}
+		}
+
+		private void decrease() {
+			increased = false;
+			stableSamples = 0;
+			// tốc độ ở số kết nối mới phải đo lại
+			bestRate = -1;
+			ceiling = Math.max(1, limit - 1);
+			change((limit + 1) / 2);
+			confirmed = limit;
+		}
+
+		private void change(int newLimit) {
+			if (newLimit != limit) {
+				limit = newLimit;
+				warmingUp = true;
+				apply.accept(newLimit);
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package downloader;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Kết nối bằng java.net.http.HttpClient, mỗi host dùng chung một client:
+// - HTTP/2 (nếu server hỗ trợ) cho phép nhiều request Range chạy song song trên cùng một kết nối
+// - HTTP/1.1 giữ kết nối sống giữa các request, không phải bắt tay TCP+TLS lại
+// - probe bằng "Range: bytes=0-0" thay vì GET cả file
+class HttpClientTransport implements HttpTransport {
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+	private static final HttpClientTransport INSTANCE = new HttpClientTransport();
+
+	private final Map<String, HttpClient> clients = new ConcurrentHashMap<>();
+
+	static HttpClientTransport getInstance() {
+		return INSTANCE;
+	}
+
+	private HttpClient clientFor(URI uri) {
+		String key = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+		return clients.computeIfAbsent(key, k -> HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(CONNECT_TIMEOUT)
+				.build());
+	}
+
+	@Override
+	public RemoteFile probe(URL url) throws IOException {
+		return toRemoteFile(send(url, 0, 0));
+	}
+
+	@Override
+	public RemoteFile probeIfModified(URL url, String etag, String lastModified) throws IOException {
+		HttpResponse<InputStream> response = send(url, 0, 0, "If-None-Match", etag, "If-Modified-Since",
+				lastModified);
+		if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			response.body().close();
+			return null;
+		}
+		return toRemoteFile(response);
+	}
+
+	private static RemoteFile toRemoteFile(HttpResponse<InputStream> response) throws IOException {
+		int status = response.statusCode();
+		HttpHeaders headers = response.headers();
+		boolean empty = RemoteFile.isEmptyFileResponse(status, headers.firstValue("Content-Range").orElse(null));
+		if (status >= 400 && !empty) {
+			// trang lỗi không phải là file
+			response.body().close();
+			throw new HttpStatusException(status, "Server returned HTTP " + status + " for " + response.uri());
+		}
+		long size;
+		if (empty) {
+			size = 0;
+		} else if (status == HttpURLConnection.HTTP_PARTIAL) {
+			size = RemoteFile.parseContentRangeTotal(headers.firstValue("Content-Range").orElse(null));
+		} else {
+			size = headers.firstValueAsLong("Content-Length").orElse(-1);
+		}
+		boolean acceptRanges = status == HttpURLConnection.HTTP_PARTIAL || empty
+				|| "bytes".equalsIgnoreCase(headers.firstValue("Accept-Ranges").orElse(null));
+		// đóng body: với 206 chỉ còn 1 byte, với 200 thì hủy luồng trả về cả file
+		response.body().close();
+		return new RemoteFile(response.uri().toURL(), size, acceptRanges, headers.firstValue("ETag").orElse(null),
+				headers.firstValue("Last-Modified").orElse(null),
+				headers.firstValue("Content-Disposition").orElse(null),
+				headers.firstValue("Content-Type").orElse(null),
+				Checksum.fromHeaders(headers.firstValue("Digest").orElse(null),
+						headers.firstValue("Repr-Digest").orElse(null),
+						status == HttpURLConnection.HTTP_OK ? headers.firstValue("Content-MD5").orElse(null) : null));
+	}
+
+	@Override
+	public InputStream openStream(URL url, long start, long end, String ifRange) throws IOException {
+		HttpResponse<InputStream> response = send(url, start, end, "If-Range", ifRange);
+		int status = response.statusCode();
+		if (status >= 400) {
+			response.body().close();
+			throw new HttpStatusException(status, "Server returned HTTP " + status + " for " + url);
+		}
+		if (ifRange != null && (start > 0 || end >= 0) && status != HttpURLConnection.HTTP_PARTIAL) {
+			// If-Range không khớp: server trả cả file mới
+			response.body().close();
+			throw new RemoteFileChangedException("File changed on server: " + url);
+		}
+		if (start > 0 && status != HttpURLConnection.HTTP_PARTIAL) {
+			response.body().close();
+			throw new IOException("Server ignored Range request for " + url);
+		}
+		return response.body();
+	}
+
+	// headers: các cặp tên, giá trị; giá trị null thì bỏ qua header đó
+	private HttpResponse<InputStream> send(URL url, long start, long end, String... headers) throws IOException {
+		URI uri;
+		try {
+			uri = url.toURI();
+		} catch (URISyntaxException e) {
+			throw new MalformedURLException(e.getMessage());
+		}
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+				.header("User-Agent", "Mozilla/5.0")
+				.GET();
+		if (start > 0 || end >= 0) {
+			request.header("Range", "bytes=" + start + "-" + (end >= 0 ? end : ""));
+		}
+		for (int i = 0; i < headers.length; i += 2) {
+			if (headers[i + 1] != null) {
+				request.header(headers[i], headers[i + 1]);
+			}
+		}
+		try {
+			return clientFor(uri).send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Request interrupted: " + url);
+		}
+	}
+}
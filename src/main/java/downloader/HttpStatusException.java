@@ -0,0 +1,24 @@
+package downloader;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+// Server trả mã lỗi HTTP (>= 400). 429/503 nghĩa là server đang giới hạn số kết nối hoặc tốc độ
+class HttpStatusException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	HttpStatusException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+
+	int getStatus() {
+		return status;
+	}
+
+	boolean isThrottled() {
+		return status == 429 || status == HttpURLConnection.HTTP_UNAVAILABLE;
+	}
+}
@@ -0,0 +1,27 @@
+package downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+// Lớp kết nối HTTP dùng cho download, có thể thay đổi theo từng AdvancedDownloader.
+// FtpTransport cũng cài đặt giao diện này để FTP dùng chung đường tải phân đoạn với HTTP
+interface HttpTransport {
+	// Lấy thông tin file (kích thước, hỗ trợ Range, ETag...) mà không tải cả file
+	RemoteFile probe(URL url) throws IOException;
+
+	// Probe có điều kiện (If-None-Match / If-Modified-Since), trả về null nếu file không đổi kể từ lần tải trước.
+	// Mặc định là probe thường, người gọi tự so sánh ETag/Last-Modified
+	default RemoteFile probeIfModified(URL url, String etag, String lastModified) throws IOException {
+		return probe(url);
+	}
+
+	// Mở luồng đọc các byte [start, end] của file, end < 0 nghĩa là đọc đến hết file
+	default InputStream openStream(URL url, long start, long end) throws IOException {
+		return openStream(url, start, end, null);
+	}
+
+	// Như trên, kèm If-Range: ifRange là ETag hoặc Last-Modified lúc probe (null nếu không kiểm tra).
+	// Nếu file trên server đã đổi thì ném RemoteFileChangedException thay vì trả về nội dung mới
+	InputStream openStream(URL url, long start, long end, String ifRange) throws IOException;
+}
@@ -0,0 +1,339 @@
+package downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Kiểm tra checksum trong lúc tải, không phải đọc lại cả file sau khi tải xong:
+// - checksum từng khối (PieceHashes): mỗi khối được băm ngay trên dữ liệu các Sink chuẩn bị ghi,
+//   khối sai được báo qua PieceFailureHandler để tải lại riêng khối đó
+// - checksum cả file: băm tuần tự theo thứ tự byte. Luồng tải đang ghi đúng ở vị trí đã băm tới
+//   (frontier) băm thẳng dữ liệu của mình; phần được ghi trước (các đoạn phía sau) được đọc lại từ file
+//   khi frontier tới, mỗi lần tối đa CATCH_UP_LIMIT byte nên thường vẫn còn trong page cache.
+// Dữ liệu không được băm khi đang tải (phần đã có từ lần tải trước, khối bị ghi không liên tục)
+// được đọc lại và kiểm tra ở verifyExisting() hoặc checkPieces().
+class IntegrityVerifier implements DownloadOutput.ContentListener, DownloadOutput.WriteListener {
+	static final int MAX_PIECE_RETRIES = 3;
+	private static final int CATCH_UP_LIMIT = 4 * 1024 * 1024;
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	// Được gọi khi một khối sai checksum, [start, end] bao gồm end
+	interface PieceFailureHandler {
+		void pieceFailed(long start, long end);
+	}
+
+	private final FileChannel reader;
+	private final long fileSize;
+	private final Checksum expected;
+	private final PieceHashes pieces;
+	private volatile PieceFailureHandler failureHandler;
+
+	// checksum cả file, chỉ dùng khi giữ digestLock
+	private final ReentrantLock digestLock = new ReentrantLock();
+	private final MessageDigest fileDigest;
+	private final ByteBuffer readBuffer;
+	private volatile long frontier;
+	// khi có khối bị tải lại thì phần đã băm có thể chứa dữ liệu sai, phải băm lại từ đầu lúc finish()
+	private volatile boolean fileDigestStale;
+	// các khoảng đã ghi xuống file, chỉ dùng khi giữ writtenLock
+	private final ReentrantLock writtenLock = new ReentrantLock();
+	private final RangeSet written = new RangeSet();
+
+	// khối đang được băm -> trạng thái, khối đã kiểm tra đúng, số lần tải lại của từng khối
+	private final Map<Integer, PieceState> inProgress = new ConcurrentHashMap<>();
+	private final Set<Integer> verified = ConcurrentHashMap.newKeySet();
+	private final Map<Integer, Integer> retries = new ConcurrentHashMap<>();
+	private volatile String failure;
+	// nhận các khối vừa kiểm tra đúng (ContentPipeline chỉ xử lý dữ liệu đã kiểm tra)
+	private volatile DownloadOutput.WriteListener verifiedListener;
+
+	IntegrityVerifier(File file, long fileSize, Checksum expected, PieceHashes pieces) throws IOException {
+		this.reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.fileSize = fileSize;
+		this.expected = expected;
+		this.pieces = pieces;
+		this.fileDigest = expected != null ? expected.newDigest() : null;
+		this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	}
+
+	// Nơi nhận các khối sai, đổi khi có lượt tải mới (tải lại khối sai sau khi đã tải xong)
+	void setFailureHandler(PieceFailureHandler failureHandler) {
+		this.failureHandler = failureHandler;
+	}
+
+	void setVerifiedListener(DownloadOutput.WriteListener verifiedListener) {
+		this.verifiedListener = verifiedListener;
+	}
+
+	@Override
+	public void content(long position, ByteBuffer data) {
+		if (pieces != null) {
+			updatePieces(position, data.duplicate());
+		}
+		if (fileDigest != null && position == frontier && digestLock.tryLock()) {
+			try {
+				if (position == frontier) {
+					int length = data.remaining();
+					fileDigest.update(data.duplicate());
+					frontier = position + length;
+				}
+			} finally {
+				digestLock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void written(long position, long length) {
+		writtenLock.lock();
+		try {
+			written.add(position, position + length);
+		} finally {
+			writtenLock.unlock();
+		}
+		if (fileDigest != null && digestLock.tryLock()) {
+			try {
+				catchUp(CATCH_UP_LIMIT);
+			} catch (IOException e) {
+				// lần sau hoặc finish() sẽ đọc lại
+			} finally {
+				digestLock.unlock();
+			}
+		}
+	}
+
+	// Băm tiếp phần đã ghi nằm ngay sau frontier, tối đa limit byte. Phải giữ digestLock
+	private void catchUp(long limit) throws IOException {
+		long end;
+		writtenLock.lock();
+		try {
+			end = Math.min(written.endOfRangeContaining(frontier), frontier + limit);
+		} finally {
+			writtenLock.unlock();
+		}
+		if (end > frontier) {
+			hashFile(fileDigest, frontier, end);
+			frontier = end;
+		}
+	}
+
+	// Đọc [start, end) từ file vào digest. Phải giữ digestLock (dùng chung readBuffer)
+	private void hashFile(MessageDigest digest, long start, long end) throws IOException {
+		long position = start;
+		while (position < end) {
+			readBuffer.clear();
+			readBuffer.limit((int) Math.min(readBuffer.capacity(), end - position));
+			int n = reader.read(readBuffer, position);
+			if (n < 0) {
+				throw new IOException("Unexpected end of file at " + position);
+			}
+			readBuffer.flip();
+			digest.update(readBuffer);
+			position += n;
+		}
+	}
+
+	private void updatePieces(long position, ByteBuffer data) {
+		while (data.hasRemaining()) {
+			int index = pieces.indexOf(position);
+			if (index >= pieces.count()) {
+				return;
+			}
+			long pieceEnd = pieces.end(index, fileSize) + 1;
+			int n = (int) Math.min(data.remaining(), pieceEnd - position);
+			ByteBuffer chunk = data.duplicate();
+			chunk.limit(chunk.position() + n);
+			updatePiece(index, position, chunk, position + n == pieceEnd);
+			data.position(data.position() + n);
+			position += n;
+		}
+	}
+
+	private void updatePiece(int index, long position, ByteBuffer chunk, boolean last) {
+		PieceState state = inProgress.get(index);
+		if (state == null) {
+			state = startPiece(index, position);
+			if (state == null) {
+				return;
+			}
+		}
+		synchronized (state) {
+			if (state.next != position) {
+				// khối bị ghi không liên tục (hai luồng cùng ghi một khối), kiểm tra lại ở checkPieces()
+				inProgress.remove(index, state);
+				return;
+			}
+			state.next += chunk.remaining();
+			state.digest.update(chunk);
+			if (!last) {
+				return;
+			}
+			inProgress.remove(index, state);
+			checkPiece(index, pieces.get(index).matches(state.digest.digest()));
+		}
+	}
+
+	// Bắt đầu băm một khối. Nếu khối bắt đầu giữa chừng (tải tiếp), phần đầu đã có được đọc lại từ file
+	private PieceState startPiece(int index, long position) {
+		long start = pieces.start(index);
+		PieceState state = new PieceState(pieces.get(index).newDigest(), start);
+		if (position > start) {
+			boolean present;
+			writtenLock.lock();
+			try {
+				present = written.contains(start, position);
+			} finally {
+				writtenLock.unlock();
+			}
+			if (!present) {
+				return null;
+			}
+			digestLock.lock();
+			try {
+				hashFile(state.digest, start, position);
+			} catch (IOException e) {
+				return null;
+			} finally {
+				digestLock.unlock();
+			}
+			state.next = position;
+		}
+		PieceState existing = inProgress.putIfAbsent(index, state);
+		return existing != null ? existing : state;
+	}
+
+	private void checkPiece(int index, boolean ok) {
+		if (ok) {
+			verified.add(index);
+			DownloadOutput.WriteListener listener = verifiedListener;
+			if (listener != null) {
+				long start = pieces.start(index);
+				listener.written(start, pieces.end(index, fileSize) + 1 - start);
+			}
+			return;
+		}
+		verified.remove(index);
+		fileDigestStale = true;
+		int attempts = retries.merge(index, 1, Integer::sum);
+		if (attempts > MAX_PIECE_RETRIES) {
+			failure = "Checksum mismatch in piece " + index + " after " + MAX_PIECE_RETRIES + " retries";
+			return;
+		}
+		PieceFailureHandler handler = failureHandler;
+		if (handler != null) {
+			handler.pieceFailed(pieces.start(index), pieces.end(index, fileSize));
+		}
+	}
+
+	// Khi tải tiếp: ghi nhận các khoảng đã có trên đĩa và kiểm tra các khối đã đủ,
+	// khối sai được báo qua failureHandler để tải lại
+	void verifyExisting(List<long[]> completedRanges) throws IOException {
+		writtenLock.lock();
+		try {
+			for (long[] range : completedRanges) {
+				written.add(range[0], range[1]);
+			}
+		} finally {
+			writtenLock.unlock();
+		}
+		if (pieces == null) {
+			return;
+		}
+		for (int index = 0; index < pieces.count(); index++) {
+			long start = pieces.start(index);
+			long end = pieces.end(index, fileSize) + 1;
+			boolean present;
+			writtenLock.lock();
+			try {
+				present = written.contains(start, end);
+			} finally {
+				writtenLock.unlock();
+			}
+			if (present) {
+				checkPiece(index, verifyFromFile(index));
+			}
+		}
+	}
+
+	private boolean verifyFromFile(int index) throws IOException {
+		MessageDigest digest = pieces.get(index).newDigest();
+		digestLock.lock();
+		try {
+			hashFile(digest, pieces.start(index), pieces.end(index, fileSize) + 1);
+		} finally {
+			digestLock.unlock();
+		}
+		return pieces.get(index).matches(digest.digest());
+	}
+
+	// Gọi sau khi mọi đoạn đã tải xong: kiểm tra lại từ file các khối chưa được kiểm tra khi đang tải,
+	// khối sai được báo qua failureHandler như khi đang tải. Trả về false nếu có khối phải tải lại,
+	// ném IOException nếu có khối vẫn sai sau MAX_PIECE_RETRIES lần tải lại
+	boolean checkPieces() throws IOException {
+		boolean ok = true;
+		if (pieces != null) {
+			for (int index = 0; index < pieces.count(); index++) {
+				if (!verified.contains(index)) {
+					boolean matches = verifyFromFile(index);
+					checkPiece(index, matches);
+					ok &= matches;
+				}
+			}
+		}
+		if (failure != null) {
+			throw new IOException(failure);
+		}
+		return ok;
+	}
+
+	// Gọi sau khi checkPieces trả về true: kiểm tra checksum cả file. Ném IOException nếu sai
+	void finish() throws IOException {
+		if (!checkPieces()) {
+			throw new IOException("Checksum mismatch in pieces, downloading them again");
+		}
+		if (fileDigest == null) {
+			return;
+		}
+		digestLock.lock();
+		try {
+			if (fileDigestStale) {
+				fileDigest.reset();
+				frontier = 0;
+			}
+			hashFile(fileDigest, frontier, fileSize);
+			frontier = fileSize;
+			byte[] actual = fileDigest.digest();
+			if (!expected.matches(actual)) {
+				throw new IOException("Checksum mismatch: expected " + expected + ", got "
+						+ expected.getAlgorithm() + "=" + Checksum.toHex(actual));
+			}
+		} finally {
+			digestLock.unlock();
+		}
+	}
+
+	void close() {
+		try {
+			reader.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static class PieceState {
+		final MessageDigest digest;
+		long next;
+
+		PieceState(MessageDigest digest, long next) {
+			this.digest = digest;
+			this.next = next;
+		}
+	}
+}
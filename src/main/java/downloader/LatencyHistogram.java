@@ -0,0 +1,49 @@
+package downloader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram thời gian (ms) với các ngưỡng cố định, mỗi ngưỡng một LongAdder
+class LatencyHistogram {
+	private static final long[] BOUNDS_MILLIS = { 1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+	private final LongAdder[] buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalMillis = new LongAdder();
+
+	LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	void record(long millis) {
+		int i = 0;
+		while (i < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[i]) {
+			i++;
+		}
+		buckets[i].increment();
+		count.increment();
+		totalMillis.add(millis);
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	double getMeanMillis() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) totalMillis.sum() / n;
+	}
+
+	// "<=10ms" -> số lần đo, theo thứ tự ngưỡng tăng dần
+	Map<String, Long> snapshot() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+			result.put("<=" + BOUNDS_MILLIS[i] + "ms", buckets[i].sum());
+		}
+		result.put(">" + BOUNDS_MILLIS[BOUNDS_MILLIS.length - 1] + "ms", buckets[BOUNDS_MILLIS.length].sum());
+		return result;
+	}
+}
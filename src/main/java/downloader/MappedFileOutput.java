@@ -0,0 +1,257 @@
+package downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+// Ghi file bằng memory-mapped I/O: mỗi luồng tải ánh xạ một cửa sổ WINDOW_SIZE byte của file
+// (đã cấp phát trước bằng setLength) và chép dữ liệu thẳng vào vùng nhớ đó, không gọi write().
+// Một MappedByteBuffer chỉ ánh xạ được tối đa 2 GB nên cửa sổ được ánh xạ lại khi ghi hết,
+// nhờ vậy tải được file lớn hơn 2 GB. Cửa sổ đã ghi đầy hoặc của Sink vừa đóng được đẩy xuống đĩa (force)
+// rồi bỏ ngay, không giữ mọi cửa sổ 64 MB tới lúc hoàn tất.
+// Hết chỗ trên đĩa khi ghi vào vùng ánh xạ không báo IOException mà làm JVM ném InternalError (SIGBUS),
+// lỗi đó được đổi thành WriteFailedException như khi ghi bằng FileChannel.
+//
+// Dữ liệu vừa đọc được giữ trong bộ đệm tạm nhỏ (direct, lấy từ BufferPool) và chỉ chép vào cửa sổ
+// ở lần đọc sau (hoặc flush), sau khi luồng tải đã discard phần thừa: nửa sau của đoạn có thể đã bị luồng khác lấy và ghi,
+// chép thẳng cả lần đọc vào vùng ánh xạ sẽ ghi đè dữ liệu của luồng đó.
+class MappedFileOutput implements DownloadOutput {
+	static final long WINDOW_SIZE = 64L * 1024 * 1024;
+	private static final int STAGING_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	// số byte ghi vào cửa sổ giữa hai lần báo cho journal
+	private final int notifyInterval;
+	private final BufferPool pool = BufferPool.getInstance();
+	private volatile WriteListener writeListener;
+	private volatile ContentListener contentListener;
+	private volatile long length;
+
+	MappedFileOutput(File file, boolean truncate) throws IOException {
+		this(file, truncate, FileChannelOutput.BUFFER_SIZE);
+	}
+
+	MappedFileOutput(File file, boolean truncate, int notifyInterval) throws IOException {
+		this.notifyInterval = notifyInterval;
+		if (truncate) {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+		} else {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.READ);
+		}
+		this.length = channel.size();
+	}
+
+	// Phải gọi trước khi mở Sink: chỉ ánh xạ được phần file đã có
+	@Override
+	public void setLength(long length) throws IOException {
+		if (channel.size() > length) {
+			channel.truncate(length);
+		} else if (channel.size() < length) {
+			channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+		}
+		this.length = length;
+	}
+
+	@Override
+	public void setWriteListener(WriteListener writeListener) {
+		this.writeListener = writeListener;
+	}
+
+	@Override
+	public void setContentListener(ContentListener contentListener) {
+		this.contentListener = contentListener;
+	}
+
+	// Bộ đệm tạm lấy từ BufferPool, chờ nếu đã hết budget
+	@Override
+	public Sink openSink(long position) throws IOException {
+		return new MappedSink(pool.acquire(STAGING_SIZE), position);
+	}
+
+	@Override
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private MappedByteBuffer map(long position) throws IOException {
+		long size = Math.min(WINDOW_SIZE, length - position);
+		if (size <= 0) {
+			throw new WriteFailedException("Write past end of file at " + position + " (length " + length + ")", null);
+		}
+		try {
+			return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+		} catch (IOException e) {
+			throw new WriteFailedException("Could not map file at " + position + ": " + e.getMessage(), e);
+		}
+	}
+
+	// Cửa sổ không còn được ghi: đẩy xuống đĩa rồi bỏ (vùng ánh xạ được giải phóng khi GC thu hồi)
+	private static void retire(MappedByteBuffer window, long windowStart) throws IOException {
+		try {
+			window.force();
+		} catch (UncheckedIOException | InternalError e) {
+			throw new WriteFailedException("Could not flush mapped file at " + windowStart + ": " + e.getMessage(), e);
+		}
+	}
+
+	private void notifyContent(long position, ByteBuffer data) {
+		ContentListener listener = contentListener;
+		if (listener != null && data.hasRemaining()) {
+			listener.content(position, data.asReadOnlyBuffer());
+		}
+	}
+
+	private void notifyWritten(long position, long length) {
+		WriteListener listener = writeListener;
+		if (listener != null && length > 0) {
+			listener.written(position, length);
+		}
+	}
+
+	// Bộ ghi của một luồng tải, ghi tuần tự vào cửa sổ ánh xạ bắt đầu từ windowStart
+	private class MappedSink implements Sink {
+		private ByteBuffer staging;
+		private MappedByteBuffer window;
+		private long windowStart;
+		// vị trí đầu tiên chưa báo cho journal
+		private long notifiedPosition;
+		// lần chép trước lỗi giữa chừng: phần đã báo cho listener không được chép/báo lại
+		private boolean failed;
+
+		private MappedSink(ByteBuffer staging, long position) {
+			this.staging = staging;
+			this.windowStart = position;
+			this.notifiedPosition = position;
+			staging.clear();
+		}
+
+		@Override
+		public int read(ReadableByteChannel src, long max) throws IOException {
+			commit();
+			staging.clear();
+			if (staging.remaining() > max) {
+				staging.limit((int) max);
+			}
+			try {
+				return src.read(staging);
+			} catch (InternalError e) {
+				// lỗi của lần chép vào vùng ánh xạ trước có thể chỉ được báo ở đây
+				throw writeFailed(e);
+			}
+		}
+
+		@Override
+		public void discard(int n) {
+			staging.position(staging.position() - n);
+		}
+
+		@Override
+		public long position() {
+			return windowPosition() + staging.position();
+		}
+
+		// dữ liệu đã chép vào cửa sổ ánh xạ coi như đã ghi
+		@Override
+		public long writtenPosition() {
+			return windowPosition();
+		}
+
+		private long windowPosition() {
+			return window == null ? windowStart : windowStart + window.position();
+		}
+
+		// Chép phần đã đọc (sau khi discard) vào cửa sổ, ánh xạ cửa sổ mới khi cửa sổ hiện tại đã đầy
+		private void commit() throws IOException {
+			if (failed) {
+				throw new WriteFailedException("Earlier write at " + windowPosition() + " failed", null);
+			}
+			staging.flip();
+			notifyContent(windowPosition(), staging);
+			try {
+				while (staging.hasRemaining()) {
+					if (window == null || !window.hasRemaining()) {
+						remap();
+					}
+					int n = Math.min(staging.remaining(), window.remaining());
+					int limit = staging.limit();
+					staging.limit(staging.position() + n);
+					window.put(staging);
+					staging.limit(limit);
+				}
+			} catch (IOException e) {
+				failed = true;
+				staging.clear();
+				throw e;
+			} catch (InternalError e) {
+				throw writeFailed(e);
+			}
+			staging.clear();
+			long position = windowPosition();
+			if (position - notifiedPosition >= notifyInterval) {
+				notifyWritten(notifiedPosition, position - notifiedPosition);
+				notifiedPosition = position;
+			}
+		}
+
+		// Ổ đĩa đầy (hoặc file bị cắt ngắn) khi ghi vào vùng ánh xạ
+		private WriteFailedException writeFailed(InternalError e) {
+			failed = true;
+			staging.clear();
+			return new WriteFailedException("Could not write to mapped file at " + windowPosition() + ": "
+					+ e.getMessage(), e);
+		}
+
+		private void remap() throws IOException {
+			if (window != null) {
+				MappedByteBuffer full = window;
+				long start = windowStart;
+				window = null;
+				windowStart += full.position();
+				retire(full, start);
+			}
+			window = map(windowStart);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			commit();
+			long position = windowPosition();
+			notifyWritten(notifiedPosition, position - notifiedPosition);
+			notifiedPosition = position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (staging == null) {
+				return;
+			}
+			try {
+				if (!failed) {
+					flush();
+				}
+			} finally {
+				pool.release(staging);
+				staging = null;
+				if (window != null) {
+					MappedByteBuffer last = window;
+					long start = windowStart;
+					window = null;
+					windowStart += last.position();
+					retire(last, start);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package downloader;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Thông tin các file đã tải xong (downloads/.metadata-cache), theo URL: kích thước, ETag, Last-Modified
+// và đường dẫn file. Lần tải sau gửi If-None-Match/If-Modified-Since, file không đổi trên server
+// và vẫn còn nguyên trên đĩa thì không tải lại.
+class MetadataCache {
+	static final String FILE_NAME = ".metadata-cache";
+	private static final MetadataCache INSTANCE = new MetadataCache(new File("downloads", FILE_NAME));
+
+	private final File cacheFile;
+	private final ReentrantLock lock = new ReentrantLock();
+	// URL -> "size\tetag\tlastModified\tpath", đọc từ file lần đầu dùng
+	private Properties entries;
+
+	MetadataCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	static MetadataCache getInstance() {
+		return INSTANCE;
+	}
+
+	Entry get(String url) {
+		lock.lock();
+		try {
+			String value = load().getProperty(url);
+			if (value == null) {
+				return null;
+			}
+			String[] fields = value.split("\t", -1);
+			if (fields.length != 4) {
+				return null;
+			}
+			return new Entry(Long.parseLong(fields[0]), emptyToNull(fields[1]), emptyToNull(fields[2]), fields[3]);
+		} catch (NumberFormatException e) {
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Ghi nhận file vừa tải xong. Không có ETag lẫn Last-Modified thì không thể kiểm tra lần sau, không lưu
+	void put(String url, Entry entry) {
+		if (entry.etag == null && entry.lastModified == null) {
+			remove(url);
+			return;
+		}
+		lock.lock();
+		try {
+			load().setProperty(url, entry.size + "\t" + nullToEmpty(entry.etag) + "\t" + nullToEmpty(entry.lastModified)
+					+ "\t" + entry.path);
+			save();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void remove(String url) {
+		lock.lock();
+		try {
+			if (load().remove(url) != null) {
+				save();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Properties load() {
+		if (entries == null) {
+			entries = new Properties();
+			if (cacheFile.exists()) {
+				try (InputStream in = new FileInputStream(cacheFile)) {
+					entries.load(in);
+				} catch (IOException | IllegalArgumentException e) {
+					// cache hỏng thì bỏ qua, các file sẽ được tải lại
+					entries.clear();
+				}
+			}
+		}
+		return entries;
+	}
+
+	// Ghi ra file tạm rồi đổi tên như DownloadJournal
+	private void save() throws IOException {
+		File parent = cacheFile.getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmpFile)) {
+			entries.store(out, null);
+		}
+		try {
+			Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static String emptyToNull(String value) {
+		return value.isEmpty() ? null : value;
+	}
+
+	private static String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+
+	static class Entry {
+		private final long size;
+		private final String etag;
+		private final String lastModified;
+		private final String path;
+
+		Entry(long size, String etag, String lastModified, String path) {
+			this.size = size;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.path = path;
+		}
+
+		String getEtag() {
+			return etag;
+		}
+
+		String getLastModified() {
+			return lastModified;
+		}
+
+		String getPath() {
+			return path;
+		}
+
+		// File vẫn còn trên đĩa, đúng kích thước và không đang tải dở
+		boolean isPresent() {
+			File file = new File(path);
+			return file.isFile() && file.length() == size && !DownloadJournal.journalFileFor(file).exists();
+		}
+
+		// File trên server giống lần tải trước (khi server không trả 304 hoặc không hỗ trợ probe có điều kiện)
+		boolean matches(RemoteFile remote) {
+			if (remote.getSize() >= 0 && remote.getSize() != size) {
+				return false;
+			}
+			if (etag != null && remote.getEtag() != null) {
+				return etag.equals(remote.getEtag());
+			}
+			return lastModified != null && lastModified.equals(remote.getLastModified());
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+// Thông tin của file đầu tiên trong một file Metalink (RFC 5854, .meta4):
+// tên, kích thước, checksum cả file, checksum từng khối và các URL mirror (sắp theo priority).
+class MetalinkFile {
+	static final String NAMESPACE = "urn:ietf:params:xml:ns:metalink";
+
+	private final String name;
+	private final long size;
+	private final Checksum checksum;
+	private final PieceHashes pieces;
+	private final List<String> urls;
+
+	private MetalinkFile(String name, long size, Checksum checksum, PieceHashes pieces, List<String> urls) {
+		this.name = name;
+		this.size = size;
+		this.checksum = checksum;
+		this.pieces = pieces;
+		this.urls = urls;
+	}
+
+	static boolean isMetalink(String input) {
+		String lower = input.toLowerCase();
+		return lower.endsWith(".meta4") || lower.endsWith(".metalink");
+	}
+
+	static MetalinkFile parse(InputStream in) throws IOException {
+		Document document;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			// file Metalink đến từ mạng, không cho phép DTD/entity ngoài
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setExpandEntityReferences(false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			document = builder.parse(in);
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Invalid Metalink: " + e.getMessage(), e);
+		}
+		NodeList files = document.getElementsByTagNameNS(NAMESPACE, "file");
+		if (files.getLength() == 0) {
+			throw new IOException("Metalink contains no file");
+		}
+		Element file = (Element) files.item(0);
+		String name = file.getAttribute("name");
+
+		long size = -1;
+		Checksum checksum = null;
+		PieceHashes pieces = null;
+		List<Element> urlElements = new ArrayList<>();
+		for (Node node = file.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (!(node instanceof Element) || !NAMESPACE.equals(node.getNamespaceURI())) {
+				continue;
+			}
+			Element element = (Element) node;
+			switch (element.getLocalName()) {
+			case "size":
+				size = Long.parseLong(element.getTextContent().trim());
+				break;
+			case "hash":
+				Checksum hash = parseHash(element.getAttribute("type"), element.getTextContent());
+				if (hash != null && (checksum == null || strength(hash) > strength(checksum))) {
+					checksum = hash;
+				}
+				break;
+			case "pieces":
+				PieceHashes parsed = parsePieces(element);
+				if (parsed != null && (pieces == null || strength(parsed.getAlgorithm()) > strength(pieces.getAlgorithm()))) {
+					pieces = parsed;
+				}
+				break;
+			case "url":
+				urlElements.add(element);
+				break;
+			default:
+				break;
+			}
+		}
+		// priority nhỏ hơn được ưu tiên, không có priority xếp sau cùng
+		urlElements.sort(Comparator.comparingInt(MetalinkFile::priority));
+		List<String> urls = new ArrayList<>();
+		for (Element url : urlElements) {
+			String value = url.getTextContent().trim();
+			String lower = value.toLowerCase();
+			if (lower.startsWith("http://") || lower.startsWith("https://") || lower.startsWith("ftp://")
+					|| lower.startsWith("ftps://")) {
+				urls.add(value);
+			}
+		}
+		if (urls.isEmpty()) {
+			throw new IOException("Metalink contains no HTTP or FTP mirror for " + name);
+		}
+		return new MetalinkFile(name, size, checksum, pieces, urls);
+	}
+
+	private static Checksum parseHash(String type, String hex) {
+		String algorithm = Checksum.normalizeAlgorithm(type);
+		if (algorithm == null) {
+			return null;
+		}
+		try {
+			return new Checksum(algorithm, Checksum.fromHex(hex));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static PieceHashes parsePieces(Element element) {
+		if (Checksum.normalizeAlgorithm(element.getAttribute("type")) == null) {
+			return null;
+		}
+		List<String> hashes = new ArrayList<>();
+		NodeList children = element.getElementsByTagNameNS(NAMESPACE, "hash");
+		for (int i = 0; i < children.getLength(); i++) {
+			hashes.add(children.item(i).getTextContent().trim());
+		}
+		try {
+			return new PieceHashes(element.getAttribute("type"), Long.parseLong(element.getAttribute("length")),
+					hashes);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static int priority(Element url) {
+		String priority = url.getAttribute("priority");
+		try {
+			return priority.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(priority.trim());
+		} catch (NumberFormatException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	private static int strength(Checksum checksum) {
+		return strength(checksum.getAlgorithm());
+	}
+
+	private static int strength(String algorithm) {
+		switch (algorithm) {
+		case "SHA-512":
+			return 4;
+		case "SHA-256":
+			return 3;
+		case "SHA-1":
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	String getName() {
+		return name;
+	}
+
+	// -1 nếu Metalink không ghi kích thước
+	long getSize() {
+		return size;
+	}
+
+	Checksum getChecksum() {
+		return checksum;
+	}
+
+	PieceHashes getPieces() {
+		return pieces;
+	}
+
+	List<String> getUrls() {
+		return urls;
+	}
+}
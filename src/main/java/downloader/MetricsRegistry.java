@@ -0,0 +1,160 @@
+package downloader;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Nơi tập hợp số liệu của mọi download và đưa lên JMX (platform MBeanServer):
+// - downloader:type=Metrics: số liệu tổng, độ dài hàng đợi của DownloadScheduler
+// - downloader:type=Download,id=<n>: từng download đang chạy, gỡ khi download kết thúc
+class MetricsRegistry implements MetricsRegistryMXBean {
+	private static final String DOMAIN = "downloader";
+	private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+	private final AtomicLong nextId = new AtomicLong();
+	private final Map<DownloadMetrics, ObjectName> running = new ConcurrentHashMap<>();
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+	private MetricsRegistry() {
+		register(this, DOMAIN + ":type=Metrics");
+	}
+
+	static MetricsRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	DownloadMetrics startDownload(String url, String fileName, long fileSize) {
+		DownloadMetrics metrics = new DownloadMetrics(this, url, fileName, fileSize);
+		ObjectName name = register(metrics, DOMAIN + ":type=Download,id=" + nextId.incrementAndGet());
+		if (name != null) {
+			running.put(metrics, name);
+		}
+		return metrics;
+	}
+
+	void finishDownload(DownloadMetrics metrics, boolean success) {
+		if (success) {
+			completed.increment();
+		} else {
+			failed.increment();
+		}
+		ObjectName name = running.remove(metrics);
+		if (name != null) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// JMX chỉ dùng để quan sát, lỗi đăng ký không làm hỏng download
+	private ObjectName register(Object mbean, String name) {
+		try {
+			ObjectName objectName = new ObjectName(name);
+			server.registerMBean(mbean, objectName);
+			return objectName;
+		} catch (JMException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	void addBytes(long count) {
+		bytes.add(count);
+	}
+
+	void recordConnectLatency(long millis) {
+		connectLatency.record(millis);
+	}
+
+	void recordRetry() {
+		retries.increment();
+	}
+
+	void recordError() {
+		errors.increment();
+	}
+
+	@Override
+	public long getTotalBytesDownloaded() {
+		return bytes.sum();
+	}
+
+	@Override
+	public long getCompletedDownloads() {
+		return completed.sum();
+	}
+
+	@Override
+	public long getFailedDownloads() {
+		return failed.sum();
+	}
+
+	@Override
+	public int getRunningDownloads() {
+		return running.size();
+	}
+
+	@Override
+	public int getQueuedDownloads() {
+		return DownloadScheduler.getInstance().getQueuedDownloads();
+	}
+
+	@Override
+	public long getBufferMemoryBytes() {
+		return BufferPool.getInstance().getAllocatedBytes();
+	}
+
+	@Override
+	public long getBufferMemoryInUseBytes() {
+		return BufferPool.getInstance().getLeasedBytes();
+	}
+
+	@Override
+	public long getBufferWaitCount() {
+		return BufferPool.getInstance().getWaitCount();
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return DownloadScheduler.getInstance().getActiveConnections();
+	}
+
+	@Override
+	public int getQueuedSegments() {
+		return DownloadScheduler.getInstance().getQueuedSegments();
+	}
+
+	@Override
+	public Map<String, Long> getConnectLatencyHistogram() {
+		return connectLatency.snapshot();
+	}
+
+	@Override
+	public double getMeanConnectLatencyMillis() {
+		return connectLatency.getMeanMillis();
+	}
+
+	@Override
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return errors.sum();
+	}
+}
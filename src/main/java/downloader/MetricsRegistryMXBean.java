@@ -0,0 +1,35 @@
+package downloader;
+
+import java.util.Map;
+
+// Số liệu tổng của mọi download, đăng ký JMX dưới tên downloader:type=Metrics
+public interface MetricsRegistryMXBean {
+	long getTotalBytesDownloaded();
+
+	long getCompletedDownloads();
+
+	long getFailedDownloads();
+
+	int getRunningDownloads();
+
+	int getQueuedDownloads();
+
+	// bộ nhớ đệm direct đã cấp (kể cả đang rảnh), đang dùng, số lần phải chờ vì hết budget
+	long getBufferMemoryBytes();
+
+	long getBufferMemoryInUseBytes();
+
+	long getBufferWaitCount();
+
+	int getActiveConnections();
+
+	int getQueuedSegments();
+
+	Map<String, Long> getConnectLatencyHistogram();
+
+	double getMeanConnectLatencyMillis();
+
+	long getRetryCount();
+
+	long getErrorCount();
+}
@@ -0,0 +1,48 @@
+package downloader;
+
+import java.net.URL;
+import java.util.concurrent.atomic.LongAdder;
+
+// Một nguồn (mirror) của file đang tải và số liệu tốc độ của nó.
+// Các trường trạng thái chỉ được đọc/ghi khi giữ lock của MirrorSet
+class Mirror {
+	private final URL url;
+	// ETag/Last-Modified lúc probe, gửi kèm If-Range khi tải đoạn
+	private final String validator;
+	private final LongAdder bytes = new LongAdder();
+	// số kết nối đang tải từ mirror này
+	int active;
+	// tổng thời gian (ns) của các kết nối đã kết thúc và tổng thời điểm bắt đầu của các kết nối đang chạy,
+	// thời gian kết nối hiện tại = finishedNanos + active * now - activeStartSum
+	long finishedNanos;
+	long activeStartSum;
+	int failures;
+	boolean dropped;
+
+	Mirror(RemoteFile remote) {
+		this.url = remote.getUrl();
+		this.validator = remote.getRangeValidator();
+	}
+
+	URL getUrl() {
+		return url;
+	}
+
+	String getValidator() {
+		return validator;
+	}
+
+	void addBytes(long count) {
+		bytes.add(count);
+	}
+
+	long getBytes() {
+		return bytes.sum();
+	}
+
+	// Tốc độ trung bình của một kết nối tới mirror (bytes/s), -1 nếu chưa đo được
+	double perConnectionRate(long now) {
+		double seconds = (finishedNanos + active * now - activeStartSum) / 1e9;
+		return seconds > 0 ? getBytes() / seconds : -1;
+	}
+}
@@ -0,0 +1,183 @@
+package downloader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Các mirror của một file. Mỗi lần luồng tải bắt đầu một đoạn, acquire() chọn mirror có tốc độ mỗi kết nối
+// cao nhất (mirror chưa dùng được thử trước), nên mirror nhanh nhận nhiều kết nối hơn; mirror bị giới hạn
+// tốc độ mỗi client sẽ có tốc độ mỗi kết nối giảm khi thêm kết nối và nhường việc cho mirror khác.
+// Mirror lỗi MAX_FAILURES lần bị bỏ, trừ khi đó là mirror cuối cùng.
+class MirrorSet {
+	static final int MAX_FAILURES = 3;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final List<Mirror> mirrors;
+	private final RemoteFile reference;
+
+	private MirrorSet(List<Mirror> mirrors, RemoteFile reference) {
+		this.mirrors = mirrors;
+		this.reference = reference;
+	}
+
+	// Một nguồn duy nhất, đã probe
+	static MirrorSet single(RemoteFile remote) {
+		return new MirrorSet(Collections.singletonList(new Mirror(remote)), remote);
+	}
+
+	// Probe lần lượt các URL. Mirror đầu tiên probe được là chuẩn; mirror khác kích thước (hoặc expectedSize
+	// nếu biết trước), không hỗ trợ Range, hay khác ETag khi checkEtag thì bị bỏ
+	static MirrorSet probe(HttpTransport transport, List<URL> urls, long expectedSize, boolean checkEtag,
+			Consumer<String> log) throws IOException {
+		List<Mirror> mirrors = new ArrayList<>();
+		RemoteFile reference = null;
+		IOException lastError = null;
+		for (URL url : urls) {
+			RemoteFile remote;
+			try {
+				remote = transport.probe(url);
+			} catch (IOException e) {
+				log.accept("Mirror " + FtpTransport.redact(url) + " dropped: "
+						+ (e.getMessage() != null ? e.getMessage() : e.toString()));
+				lastError = e;
+				continue;
+			}
+			String problem = null;
+			if (expectedSize > 0 && remote.getSize() != expectedSize) {
+				problem = "size " + remote.getSize() + " differs from " + expectedSize;
+			} else if (reference != null && remote.getSize() != reference.getSize()) {
+				problem = "size " + remote.getSize() + " differs from " + reference.getSize();
+			} else if (reference != null && checkEtag && remote.getEtag() != null && reference.getEtag() != null
+					&& !Objects.equals(remote.getEtag(), reference.getEtag())) {
+				problem = "ETag " + remote.getEtag() + " differs from " + reference.getEtag();
+			} else if (urls.size() > 1 && !remote.acceptsRanges()) {
+				problem = "no Range support";
+			}
+			if (problem != null) {
+				log.accept("Mirror " + FtpTransport.redact(url) + " dropped: " + problem);
+				continue;
+			}
+			if (reference == null) {
+				reference = remote;
+			}
+			mirrors.add(new Mirror(remote));
+		}
+		if (reference == null) {
+			throw lastError != null ? lastError : new IOException("No usable mirror");
+		}
+		return new MirrorSet(mirrors, reference);
+	}
+
+	RemoteFile getReference() {
+		return reference;
+	}
+
+	int size() {
+		return mirrors.size();
+	}
+
+	// Chọn mirror cho đoạn tiếp theo, null nếu không còn mirror nào dùng được
+	Lease acquire() {
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			Mirror best = null;
+			double bestRate = 0;
+			for (Mirror mirror : mirrors) {
+				if (mirror.dropped) {
+					continue;
+				}
+				double rate = mirror.perConnectionRate(now);
+				if (rate < 0 && mirror.active == 0) {
+					// chưa dùng lần nào: thử trước để đo tốc độ
+					best = mirror;
+					break;
+				}
+				if (best == null || rate > bestRate || (rate == bestRate && mirror.active < best.active)) {
+					best = mirror;
+					bestRate = rate;
+				}
+			}
+			if (best == null) {
+				return null;
+			}
+			best.active++;
+			best.activeStartSum += now;
+			return new Lease(best, now);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Trả mirror sau khi tải xong (hoặc lỗi) một đoạn. Khi lỗi, trả về true nếu còn mirror khác để thử lại
+	boolean release(Lease lease, boolean failed) {
+		Mirror mirror = lease.mirror;
+		lock.lock();
+		try {
+			mirror.active--;
+			mirror.activeStartSum -= lease.startNanos;
+			mirror.finishedNanos += System.nanoTime() - lease.startNanos;
+			if (!failed) {
+				return false;
+			}
+			mirror.failures++;
+			boolean alternative = false;
+			for (Mirror other : mirrors) {
+				if (other != mirror && !other.dropped) {
+					alternative = true;
+				}
+			}
+			if (alternative && mirror.failures >= MAX_FAILURES) {
+				mirror.dropped = true;
+			}
+			return alternative;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Bỏ mirror có file đã đổi sau khi probe, trả về true nếu còn mirror khác
+	boolean drop(Lease lease) {
+		release(lease, false);
+		lock.lock();
+		try {
+			lease.mirror.dropped = true;
+			for (Mirror mirror : mirrors) {
+				if (!mirror.dropped) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// URL -> tốc độ tổng của mirror (bytes/s) từ lúc bắt đầu tải
+	Map<String, Long> throughput(long startNanos) {
+		Map<String, Long> result = new LinkedHashMap<>();
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		for (Mirror mirror : mirrors) {
+			result.put(FtpTransport.redact(mirror.getUrl()), seconds > 0 ? (long) (mirror.getBytes() / seconds) : 0);
+		}
+		return result;
+	}
+
+	// Một kết nối đang dùng mirror, trả lại bằng release()
+	static class Lease {
+		final Mirror mirror;
+		final long startNanos;
+
+		private Lease(Mirror mirror, long startNanos) {
+			this.mirror = mirror;
+			this.startNanos = startNanos;
+		}
+	}
+}
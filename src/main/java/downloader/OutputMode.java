@@ -0,0 +1,9 @@
+package downloader;
+
+// Cách ghi file của download tải phân đoạn, chọn riêng cho từng download
+public enum OutputMode {
+	// FileChannel ghi theo vị trí qua bộ đệm direct của từng luồng tải
+	FILE_CHANNEL,
+	// ánh xạ file vào bộ nhớ theo từng cửa sổ, hợp với file lớn trên ổ nhanh (NVMe)
+	MEMORY_MAPPED
+}
@@ -0,0 +1,182 @@
+package downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+// Tìm link file trên các trang danh sách (directory listing, trang index) để tải hàng loạt:
+// - link có URL khớp filePattern là file cần tải, mỗi URL (bỏ phần #...) chỉ lấy một lần
+// - trang tiếp theo là link rel="next" hoặc link khớp pagePattern, chỉ trong cùng host với trang đầu
+// - tối đa parallelism trang được tải cùng lúc, tối đa maxPages trang cho mỗi lần harvest
+// Trang được tải qua HttpTransport như file nên dùng lại kết nối keep-alive (HTTP/2) theo host của HttpClientTransport
+class PageHarvester {
+	static final int DEFAULT_MAX_PAGES = 100;
+	static final int DEFAULT_PARALLELISM = 4;
+	private static final AtomicInteger THREADS = new AtomicInteger();
+
+	private final HttpTransport transport;
+	private final Pattern filePattern;
+	private volatile Pattern pagePattern;
+	private volatile int maxPages = DEFAULT_MAX_PAGES;
+	private volatile int parallelism = DEFAULT_PARALLELISM;
+
+	PageHarvester(HttpTransport transport, Pattern filePattern) {
+		this.transport = transport;
+		this.filePattern = filePattern;
+	}
+
+	// Link khớp pattern (ngoài rel="next") cũng được coi là trang tiếp theo, null: chỉ theo rel="next"
+	void setPagePattern(Pattern pagePattern) {
+		this.pagePattern = pagePattern;
+	}
+
+	void setMaxPages(int maxPages) {
+		this.maxPages = Math.max(1, maxPages);
+	}
+
+	void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	// Duyệt các trang bắt đầu từ startUrls, trả về URL các file theo thứ tự tìm thấy.
+	// Trang lỗi được báo qua status và bỏ qua, chỉ ném lỗi khi không đọc được trang nào
+	List<String> harvest(List<String> startUrls, Consumer<String> status) throws IOException, InterruptedException {
+		Set<String> files = new LinkedHashSet<>();
+		Set<String> seenPages = new HashSet<>();
+		Deque<URI> pending = new ArrayDeque<>();
+		for (String startUrl : startUrls) {
+			URI uri = normalize(startUrl);
+			if (uri == null) {
+				throw new IOException("Invalid page URL: " + startUrl);
+			}
+			if (seenPages.add(uri.toString())) {
+				pending.add(uri);
+			}
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "harvest-" + THREADS.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletionService<Page> completion = new ExecutorCompletionService<>(pool);
+		int pages = 0;
+		int loaded = 0;
+		int running = 0;
+		IOException lastError = null;
+		try {
+			while (running > 0 || !pending.isEmpty() && pages < maxPages) {
+				while (running < parallelism && !pending.isEmpty() && pages < maxPages) {
+					URI uri = pending.poll();
+					completion.submit(() -> fetch(uri));
+					running++;
+					pages++;
+				}
+				Page page;
+				try {
+					page = completion.take().get();
+				} catch (ExecutionException e) {
+					running--;
+					Throwable cause = e.getCause();
+					lastError = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+					status.accept("Could not read page: " + cause.getMessage());
+					continue;
+				}
+				running--;
+				loaded++;
+				int before = files.size();
+				files.addAll(page.files);
+				for (URI next : page.nextPages) {
+					if (seenPages.add(next.toString())) {
+						pending.add(next);
+					}
+				}
+				status.accept("Page " + page.uri + ": " + (files.size() - before) + " new files");
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		if (!pending.isEmpty()) {
+			status.accept("Stopped after " + maxPages + " pages, " + pending.size() + " pages not visited");
+		}
+		if (loaded == 0 && lastError != null) {
+			throw lastError;
+		}
+		return new ArrayList<>(files);
+	}
+
+	private Page fetch(URI uri) throws IOException {
+		Document document;
+		try (InputStream in = transport.openStream(uri.toURL(), 0, -1)) {
+			document = Jsoup.parse(in, null, uri.toString());
+		}
+		Page page = new Page(uri);
+		Pattern pagePattern = this.pagePattern;
+		for (Element link : document.select("a[href], link[rel][href]")) {
+			boolean anchor = link.tagName().equals("a");
+			URI target = anchor || isNextLink(link) ? normalize(link.absUrl("href")) : null;
+			if (target == null) {
+				continue;
+			}
+			String url = target.toString();
+			if (anchor && filePattern.matcher(url).find()) {
+				page.files.add(url);
+			} else if (Objects.equals(target.getHost(), uri.getHost()) && !target.equals(uri)
+					&& (isNextLink(link) || pagePattern != null && pagePattern.matcher(url).find())) {
+				page.nextPages.add(target);
+			}
+		}
+		return page;
+	}
+
+	private static boolean isNextLink(Element link) {
+		for (String rel : link.attr("rel").split("\\s+")) {
+			if (rel.equalsIgnoreCase("next")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// URL tuyệt đối http(s)/ftp không kèm #..., null nếu không phải URL tải được
+	private static URI normalize(String url) {
+		if (url == null || url.isEmpty()) {
+			return null;
+		}
+		int hash = url.indexOf('#');
+		if (hash >= 0) {
+			url = url.substring(0, hash);
+		}
+		try {
+			// một số trang để nguyên dấu cách trong href
+			URI uri = new URI(url.replace(" ", "%20")).normalize();
+			String scheme = uri.getScheme();
+			if (scheme == null || uri.getHost() == null) {
+				return null;
+			}
+			scheme = scheme.toLowerCase();
+			return scheme.equals("http") || scheme.equals("https") || scheme.equals("ftp") ? uri : null;
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	private static class Page {
+		private final URI uri;
+		private final List<String> files = new ArrayList<>();
+		private final List<URI> nextPages = new ArrayList<>();
+
+		private Page(URI uri) {
+			this.uri = uri;
+		}
+	}
+}
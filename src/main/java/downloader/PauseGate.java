@@ -0,0 +1,80 @@
+package downloader;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Cổng pause/resume/cancel cho các luồng tải.
+// Khi đang chạy, await() chỉ đọc một biến volatile (AtomicInteger.get), không lấy lock.
+// Khi tạm dừng, luồng được park cho đến khi resume() hoặc cancel().
+class PauseGate {
+	private static final int RUNNING = 0;
+	private static final int PAUSED = 1;
+	private static final int CANCELLED = 2;
+
+	private final AtomicInteger state = new AtomicInteger(RUNNING);
+	private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+	// Trả về true nếu được chạy tiếp, false nếu download bị hủy hoặc luồng bị interrupt
+	boolean await() {
+		if (state.get() == RUNNING) {
+			return true;
+		}
+		return awaitSlow();
+	}
+
+	private boolean awaitSlow() {
+		Thread current = Thread.currentThread();
+		while (true) {
+			int s = state.get();
+			if (s == RUNNING) {
+				return true;
+			}
+			if (s == CANCELLED || current.isInterrupted()) {
+				return false;
+			}
+			waiters.add(current);
+			// kiểm tra lại sau khi vào hàng đợi để không lỡ lần resume() xảy ra ở giữa
+			if (state.get() == PAUSED) {
+				LockSupport.park(this);
+			}
+			waiters.remove(current);
+		}
+	}
+
+	boolean isPaused() {
+		return state.get() == PAUSED;
+	}
+
+	boolean isCancelled() {
+		return state.get() == CANCELLED;
+	}
+
+	void pause() {
+		state.compareAndSet(RUNNING, PAUSED);
+	}
+
+	void resume() {
+		if (state.compareAndSet(PAUSED, RUNNING)) {
+			wakeAll();
+		}
+	}
+
+	void cancel() {
+		state.set(CANCELLED);
+		wakeAll();
+	}
+
+	// Mở lại cổng cho lần tải mới
+	void reset() {
+		state.set(RUNNING);
+		wakeAll();
+	}
+
+	private void wakeAll() {
+		for (Thread waiter : waiters) {
+			LockSupport.unpark(waiter);
+		}
+	}
+}
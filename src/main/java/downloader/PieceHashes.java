@@ -0,0 +1,57 @@
+package downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Checksum mong đợi của từng khối (piece) pieceLength byte của file, khối cuối có thể ngắn hơn.
+// Khối nào sai sẽ được tải lại riêng thay vì tải lại cả file.
+class PieceHashes {
+	private final String algorithm;
+	private final long pieceLength;
+	private final List<Checksum> pieces;
+
+	PieceHashes(String algorithm, long pieceLength, List<String> hexHashes) {
+		String normalized = Checksum.normalizeAlgorithm(algorithm);
+		if (normalized == null) {
+			throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm);
+		}
+		if (pieceLength <= 0) {
+			throw new IllegalArgumentException("Invalid piece length: " + pieceLength);
+		}
+		this.algorithm = normalized;
+		this.pieceLength = pieceLength;
+		this.pieces = new ArrayList<>(hexHashes.size());
+		for (String hex : hexHashes) {
+			pieces.add(new Checksum(normalized, Checksum.fromHex(hex)));
+		}
+	}
+
+	String getAlgorithm() {
+		return algorithm;
+	}
+
+	long getPieceLength() {
+		return pieceLength;
+	}
+
+	int count() {
+		return pieces.size();
+	}
+
+	Checksum get(int index) {
+		return pieces.get(index);
+	}
+
+	int indexOf(long position) {
+		return (int) (position / pieceLength);
+	}
+
+	long start(int index) {
+		return index * pieceLength;
+	}
+
+	// Byte cuối (bao gồm) của khối index trong file fileSize byte
+	long end(int index, long fileSize) {
+		return Math.min(fileSize, (index + 1) * pieceLength) - 1;
+	}
+}
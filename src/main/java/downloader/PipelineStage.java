@@ -0,0 +1,25 @@
+package downloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Một bước xử lý nội dung file ngay khi đang tải (giải nén, băm, ghi sang nơi khác...).
+// Nhận các byte của file đúng thứ tự từ đầu đến cuối, mỗi byte đúng một lần, trên luồng tải.
+// Cài đặt không được giữ data sau khi accept trả về và không nên chờ trong accept;
+// việc nặng nên chuyển sang luồng riêng như StreamingStage.
+public interface PipelineStage {
+	void accept(ByteBuffer data) throws IOException;
+
+	// Stage chưa xử lý kịp phần đã nhận: ContentPipeline tạm không đưa thêm dữ liệu trên luồng tải,
+	// phần đó được đọc lại từ file sau (finish() thì vẫn đưa hết)
+	default boolean isBacklogged() {
+		return false;
+	}
+
+	// Đã nhận hết file
+	void finish() throws IOException;
+
+	// Download lỗi hoặc bị hủy, finish sẽ không được gọi
+	default void abort() {
+	}
+}
@@ -0,0 +1,177 @@
+package downloader;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javafx.application.Platform;
+import javafx.scene.control.TextArea;
+
+// Hiển thị tiến trình của một download trong bảng của GUI (DownloadListener cho JavaFX).
+// Các luồng tải chỉ cập nhật mô hình (snapshot) bên dưới; mỗi nhịp FX chỉ vẽ lại một lần
+// dù có bao nhiêu cập nhật: tiến trình và dòng trạng thái của hàng trong bảng, và log chi tiết
+// (MAX_LOG_LINES dòng gần nhất) chỉ khi hàng đang được xem (setStatusArea).
+// Download kết thúc thì chỉ giữ FINISHED_LOG_LINES dòng cuối, hàng nghìn download đã xong không chiếm nhiều bộ nhớ.
+class ProgressView implements DownloadListener {
+	static final int MAX_LOG_LINES = 200;
+	static final int FINISHED_LOG_LINES = 20;
+	private static final int MAX_SEGMENT_LINES = 16;
+
+	private final DownloadInfo job;
+	// chỉ dùng trên luồng FX, null khi hàng không được xem
+	private TextArea statusArea;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final AtomicBoolean renderScheduled = new AtomicBoolean();
+	// mô hình hiển thị, chỉ đọc/ghi khi giữ lock
+	private final ArrayDeque<String> log = new ArrayDeque<>();
+	private final Map<Integer, String> segmentLines = new LinkedHashMap<>();
+	private String headline;
+	private double progress = -1;
+	// null khi download chưa kết thúc
+	private Boolean result;
+
+	ProgressView(DownloadInfo job) {
+		this.job = job;
+	}
+
+	// Gọi trên luồng FX: hiển thị log chi tiết vào statusArea (null: thôi hiển thị)
+	void setStatusArea(TextArea statusArea) {
+		this.statusArea = statusArea;
+		if (statusArea != null) {
+			render();
+		}
+	}
+
+	@Override
+	public void statusChanged(String message) {
+		appendLog(message);
+	}
+
+	@Override
+	public void progressChanged(double progress, String summary) {
+		setHeadline(progress, summary);
+	}
+
+	@Override
+	public void segmentProgressChanged(int segment, String summary, boolean finished) {
+		if (finished) {
+			finishSegment(segment, summary);
+		} else {
+			setSegmentLine(segment, summary);
+		}
+	}
+
+	@Override
+	public void downloadFinished(boolean success) {
+		lock.lock();
+		try {
+			result = success;
+			segmentLines.clear();
+			while (log.size() > FINISHED_LOG_LINES) {
+				log.removeFirst();
+			}
+		} finally {
+			lock.unlock();
+		}
+		scheduleRender();
+	}
+
+	void appendLog(String line) {
+		lock.lock();
+		try {
+			log.addLast(line);
+			while (log.size() > MAX_LOG_LINES) {
+				log.removeFirst();
+			}
+		} finally {
+			lock.unlock();
+		}
+		scheduleRender();
+	}
+
+	// Dòng tổng quan thay thế dòng trước đó thay vì nối thêm
+	void setHeadline(double progress, String headline) {
+		lock.lock();
+		try {
+			this.progress = progress;
+			this.headline = headline;
+		} finally {
+			lock.unlock();
+		}
+		scheduleRender();
+	}
+
+	void setSegmentLine(int segmentId, String line) {
+		lock.lock();
+		try {
+			segmentLines.put(segmentId, line);
+			Iterator<Integer> oldest = segmentLines.keySet().iterator();
+			while (segmentLines.size() > MAX_SEGMENT_LINES) {
+				oldest.next();
+				oldest.remove();
+			}
+		} finally {
+			lock.unlock();
+		}
+		scheduleRender();
+	}
+
+	// Đoạn đã xong: bỏ khỏi danh sách đang tải, ghi một dòng vào log
+	void finishSegment(int segmentId, String line) {
+		lock.lock();
+		try {
+			segmentLines.remove(segmentId);
+		} finally {
+			lock.unlock();
+		}
+		appendLog(line);
+	}
+
+	// Gộp mọi cập nhật đến trước lần vẽ tiếp theo thành một Platform.runLater
+	private void scheduleRender() {
+		if (renderScheduled.compareAndSet(false, true)) {
+			Platform.runLater(this::render);
+		}
+	}
+
+	private void render() {
+		renderScheduled.set(false);
+		double progress;
+		String status;
+		Boolean result;
+		TextArea statusArea = this.statusArea;
+		StringBuilder text = new StringBuilder();
+		lock.lock();
+		try {
+			progress = this.progress;
+			result = this.result;
+			// đang tải thì hiện tốc độ/thời gian còn lại, đã xong thì hiện thông báo cuối (hoàn tất, lỗi...)
+			status = headline != null && result == null ? headline : log.isEmpty() ? "" : log.peekLast();
+			if (statusArea != null) {
+				// log ở trên, tiến trình mới nhất ở cuối để luôn nhìn thấy khi cuộn xuống
+				for (String line : log) {
+					text.append(line).append('\n');
+				}
+				if (text.length() > 0 && (headline != null || !segmentLines.isEmpty())) {
+					text.append('\n');
+				}
+				for (String line : segmentLines.values()) {
+					text.append(line).append('\n');
+				}
+				if (headline != null) {
+					text.append(headline).append('\n');
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		job.update(this, progress, status, result);
+		if (statusArea != null) {
+			statusArea.setText(text.toString());
+			statusArea.positionCaret(text.length());
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Tập các khoảng byte [start, end) (không bao gồm end) không chồng lên nhau, khoảng liền kề được gộp lại.
+// Không an toàn đa luồng, nơi dùng tự giữ lock.
+class RangeSet {
+	// start -> end
+	private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+	void add(long start, long end) {
+		if (start >= end) {
+			return;
+		}
+		Map.Entry<Long, Long> before = ranges.floorEntry(start);
+		if (before != null && before.getValue() >= start) {
+			start = before.getKey();
+			end = Math.max(end, before.getValue());
+		}
+		Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+		while (next != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			ranges.remove(next.getKey());
+			next = ranges.ceilingEntry(start);
+		}
+		ranges.put(start, end);
+	}
+
+	// Cuối khoảng chứa position, bằng position nếu position chưa có trong tập
+	long endOfRangeContaining(long position) {
+		Map.Entry<Long, Long> range = ranges.floorEntry(position);
+		if (range == null || range.getValue() <= position) {
+			return position;
+		}
+		return range.getValue();
+	}
+
+	boolean contains(long start, long end) {
+		return start >= end || endOfRangeContaining(start) >= end;
+	}
+
+	long totalBytes() {
+		long total = 0;
+		for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+			total += range.getValue() - range.getKey();
+		}
+		return total;
+	}
+
+	// Các khoảng [start, end) theo thứ tự tăng dần
+	List<long[]> ranges() {
+		List<long[]> list = new ArrayList<>(ranges.size());
+		for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+			list.add(new long[] { range.getKey(), range.getValue() });
+		}
+		return list;
+	}
+
+	// Các khoảng [start, end] (bao gồm end) trong [0, size) chưa có trong tập
+	List<long[]> gaps(long size) {
+		List<long[]> gaps = new ArrayList<>();
+		long position = 0;
+		for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+			if (range.getKey() > position) {
+				gaps.add(new long[] { position, range.getKey() - 1 });
+			}
+			position = Math.max(position, range.getValue());
+		}
+		if (position < size) {
+			gaps.add(new long[] { position, size - 1 });
+		}
+		return gaps;
+	}
+}
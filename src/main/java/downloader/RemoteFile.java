@@ -0,0 +1,91 @@
+package downloader;
+
+import java.net.URL;
+
+// Thông tin file trên server lấy được từ lần probe
+class RemoteFile {
+	private final URL url;
+	private final long size;
+	private final boolean acceptRanges;
+	private final String etag;
+	private final String lastModified;
+	private final String contentDisposition;
+	private final String contentType;
+	private final Checksum checksum;
+
+	RemoteFile(URL url, long size, boolean acceptRanges, String etag, String lastModified,
+			String contentDisposition, String contentType, Checksum checksum) {
+		this.url = url;
+		this.size = size;
+		this.acceptRanges = acceptRanges;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.contentDisposition = contentDisposition;
+		this.contentType = contentType;
+		this.checksum = checksum;
+	}
+
+	// URL cuối cùng sau khi chuyển hướng, các đoạn tải gọi thẳng vào URL này
+	URL getUrl() {
+		return url;
+	}
+
+	// -1 nếu server không cho biết kích thước
+	long getSize() {
+		return size;
+	}
+
+	boolean acceptsRanges() {
+		return acceptRanges;
+	}
+
+	String getEtag() {
+		return etag;
+	}
+
+	String getLastModified() {
+		return lastModified;
+	}
+
+	String getContentDisposition() {
+		return contentDisposition;
+	}
+
+	String getContentType() {
+		return contentType;
+	}
+
+	// Giá trị cho If-Range: ETag mạnh, nếu không có thì Last-Modified (ETag yếu W/ không dùng được với Range)
+	String getRangeValidator() {
+		if (etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return lastModified;
+	}
+
+	// Checksum cả file do server gửi (Digest, Repr-Digest, Content-MD5), null nếu không có
+	Checksum getChecksum() {
+		return checksum;
+	}
+
+	// Probe "Range: bytes=0-0" tới file rỗng: không có byte 0 nên server trả 416 kèm "Content-Range: bytes */0"
+	static boolean isEmptyFileResponse(int status, String contentRange) {
+		return status == 416 && parseContentRangeTotal(contentRange) == 0;
+	}
+
+	// Lấy tổng kích thước từ header "Content-Range: bytes 0-0/12345", -1 nếu không có
+	static long parseContentRangeTotal(String contentRange) {
+		if (contentRange == null) {
+			return -1;
+		}
+		int slash = contentRange.lastIndexOf('/');
+		if (slash < 0 || contentRange.endsWith("*")) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
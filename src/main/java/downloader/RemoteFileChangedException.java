@@ -0,0 +1,13 @@
+package downloader;
+
+import java.io.IOException;
+
+// File trên server đã đổi so với lúc probe (server bỏ qua Range vì If-Range không khớp),
+// phần đã tải không còn dùng chung được với nội dung mới
+class RemoteFileChangedException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	RemoteFileChangedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,53 @@
+package downloader;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Số lần thử lại còn được dùng của một download (chung cho mọi luồng tải) và thời gian chờ giữa các lần:
+// tăng gấp đôi sau mỗi lần lỗi liên tiếp (tối đa MAX_DELAY), cộng ngẫu nhiên để các luồng
+// bị đứt cùng lúc không kết nối lại cùng lúc
+class RetryBudget {
+	static final int DEFAULT_RETRIES = 20;
+	private static final long BASE_DELAY = 1000;
+	private static final long MAX_DELAY = 30_000;
+
+	private final AtomicInteger remaining;
+
+	RetryBudget(int retries) {
+		this.remaining = new AtomicInteger(retries);
+	}
+
+	// Lấy một lần thử lại, false nếu đã hết
+	boolean tryAcquire() {
+		while (true) {
+			int current = remaining.get();
+			if (current <= 0) {
+				return false;
+			}
+			if (remaining.compareAndSet(current, current - 1)) {
+				return true;
+			}
+		}
+	}
+
+	int getRemaining() {
+		return Math.max(0, remaining.get());
+	}
+
+	// Thời gian chờ trước lần thử thứ attempt (từ 1) của cùng một đoạn: nửa cố định, nửa ngẫu nhiên
+	static long backoffMillis(int attempt) {
+		long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt - 1, 16));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	// Lỗi có thể hết khi thử lại: lỗi mạng, 5xx, 408, 429. Các mã 4xx khác (404, 403...) và lỗi ghi file
+	// cục bộ (WriteFailedException) thì thử lại cũng vô ích
+	static boolean isRetryable(IOException e) {
+		if (e instanceof HttpStatusException) {
+			int status = ((HttpStatusException) e).getStatus();
+			return status >= 500 || status == 408 || status == 429;
+		}
+		return !(e instanceof RemoteFileChangedException) && !(e instanceof WriteFailedException);
+	}
+}
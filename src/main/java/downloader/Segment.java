@@ -0,0 +1,79 @@
+package downloader;
+
+// Một đoạn byte [start, end] của file đang tải.
+// position: byte tiếp theo cần ghi
+// end: có thể bị thu nhỏ khi một luồng khác lấy bớt nửa sau (work stealing)
+class Segment {
+	private final int id;
+	private final long start;
+	private long position;
+	private long end;
+
+	Segment(int id, long start, long end) {
+		this.id = id;
+		this.start = start;
+		this.position = start;
+		this.end = end;
+	}
+
+	int getId() {
+		return id;
+	}
+
+	long getStart() {
+		return start;
+	}
+
+	synchronized long getPosition() {
+		return position;
+	}
+
+	synchronized long getEnd() {
+		return end;
+	}
+
+	synchronized long remaining() {
+		return Math.max(0, end - position + 1);
+	}
+
+	synchronized boolean isDone() {
+		return position > end;
+	}
+
+	synchronized long length() {
+		return end - start + 1;
+	}
+
+	// Nhận tối đa `bytes` byte vừa đọc được, trả về số byte thực sự thuộc về đoạn này
+	// (phần vượt quá end đã được chuyển cho đoạn khác nên bị bỏ qua)
+	synchronized int claim(int bytes) {
+		int allowed = (int) Math.min(bytes, remaining());
+		position += allowed;
+		return allowed;
+	}
+
+	// Lùi position về `to` (byte đầu tiên chưa được ghi xuống file) khi ghi lỗi,
+	// để lần thử lại tải lại cả phần đã nhận nhưng chưa ghi được
+	synchronized void rewind(long to) {
+		position = Math.max(start, Math.min(position, to));
+	}
+
+	// Cắt nửa sau phần còn lại thành một đoạn mới, null nếu phần còn lại quá nhỏ.
+	// alignment > 1: điểm cắt được làm tròn lên bội số của alignment (ranh giới khối checksum)
+	synchronized Segment splitBack(int newId, long minSize, long alignment) {
+		long remaining = remaining();
+		if (remaining < 2 * minSize) {
+			return null;
+		}
+		long splitAt = position + (remaining - remaining / 2);
+		if (alignment > 1) {
+			splitAt = (splitAt + alignment - 1) / alignment * alignment;
+			if (splitAt > end) {
+				return null;
+			}
+		}
+		long oldEnd = end;
+		end = splitAt - 1;
+		return new Segment(newId, splitAt, oldEnd);
+	}
+}
@@ -0,0 +1,242 @@
+package downloader;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Quản lí các đoạn tải của một file:
+// - luồng tải xong đoạn của mình sẽ cắt nửa sau của đoạn còn nhiều byte nhất (work stealing)
+// - số luồng tải có thể tăng/giảm khi đang tải qua setTargetWorkers
+// - khi có checksum từng khối, điểm chia đoạn rơi vào ranh giới khối để mỗi khối do một luồng ghi liền mạch
+class SegmentManager {
+	static final long MIN_SPLIT_SIZE = 1024 * 1024;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// các đoạn chưa xong hoặc đang có luồng giữ, đoạn xong được bỏ khi luồng trả lại
+	// (không giữ mọi đoạn đã từng cắt/tải lại để isComplete không phải duyệt lại chúng)
+	private final Set<Segment> segments = new LinkedHashSet<>();
+	private final Deque<Segment> pending = new ArrayDeque<>();
+	private final Set<Segment> active = new HashSet<>();
+	private final CompletableFuture<Void> done = new CompletableFuture<>();
+	private final Consumer<SegmentManager> workerLauncher;
+	private int nextId;
+	private long alignment = 1;
+	private int targetWorkers;
+	private int workers;
+
+	// workerLauncher: khởi chạy thêm một luồng tải cho manager được truyền vào, luồng đó sẽ gọi next() để lấy việc
+	SegmentManager(Consumer<SegmentManager> workerLauncher) {
+		this.workerLauncher = workerLauncher;
+	}
+
+	// Phải gọi trước splitEvenly
+	void setAlignment(long alignment) {
+		lock.lock();
+		try {
+			this.alignment = Math.max(1, alignment);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Chia [0, fileSize) thành count đoạn bằng nhau (làm tròn theo alignment)
+	void splitEvenly(long fileSize, int count) {
+		long segmentSize = fileSize / count;
+		if (alignment > 1) {
+			segmentSize = Math.max(alignment, (segmentSize + alignment - 1) / alignment * alignment);
+		}
+		for (int i = 0; i < count; i++) {
+			long startByte = i * segmentSize;
+			if (startByte >= fileSize) {
+				break;
+			}
+			long endByte = (i == count - 1) ? fileSize - 1 : Math.min(fileSize, (i + 1) * segmentSize) - 1;
+			addSegment(startByte, endByte);
+		}
+	}
+
+	Segment addSegment(long startByte, long endByte) {
+		lock.lock();
+		try {
+			Segment segment = new Segment(nextId++, startByte, endByte);
+			segments.add(segment);
+			pending.add(segment);
+			return segment;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Tải lại [startByte, endByte] khi đang tải (ví dụ khối sai checksum),
+	// khởi chạy thêm luồng nếu số luồng đang chạy ít hơn mục tiêu
+	void refetch(long startByte, long endByte) {
+		boolean launch;
+		lock.lock();
+		try {
+			Segment segment = new Segment(nextId++, startByte, endByte);
+			segments.add(segment);
+			pending.add(segment);
+			launch = workers < targetWorkers && !done.isDone();
+			if (launch) {
+				workers++;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (launch) {
+			workerLauncher.accept(this);
+		}
+	}
+
+	void setTargetWorkers(int count) {
+		int toLaunch;
+		lock.lock();
+		try {
+			targetWorkers = Math.max(1, count);
+			toLaunch = Math.max(0, targetWorkers - workers);
+			workers += toLaunch;
+		} finally {
+			lock.unlock();
+		}
+		for (int i = 0; i < toLaunch; i++) {
+			workerLauncher.accept(this);
+		}
+	}
+
+	int getTargetWorkers() {
+		lock.lock();
+		try {
+			return targetWorkers;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Lấy đoạn tiếp theo cho luồng tải, null nếu luồng nên dừng
+	Segment next(Segment finished) {
+		lock.lock();
+		try {
+			if (finished != null) {
+				deactivate(finished);
+			}
+			if (isComplete()) {
+				workers--;
+				done.complete(null);
+				return null;
+			}
+			if (workers > targetWorkers || done.isDone()) {
+				workers--;
+				return null;
+			}
+			Segment segment = pending.poll();
+			if (segment == null) {
+				segment = steal();
+			}
+			if (segment == null) {
+				workers--;
+				return null;
+			}
+			active.add(segment);
+			return segment;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Luồng tải dừng sớm (server không nhận thêm kết nối), phần còn lại của đoạn trả về hàng đợi cho luồng khác.
+	// Trả về false nếu đây là luồng cuối cùng, khi đó người gọi phải tự xử lý lỗi
+	boolean retire(Segment segment) {
+		lock.lock();
+		try {
+			if (workers <= 1) {
+				return false;
+			}
+			deactivate(segment);
+			if (!segment.isDone()) {
+				pending.addFirst(segment);
+			}
+			workers--;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Luồng tải dừng giữa chừng (bị hủy, lỗi): phần còn lại của đoạn trả về hàng đợi, luồng không còn được tính
+	void abandon(Segment segment) {
+		lock.lock();
+		try {
+			if (deactivate(segment) && !segment.isDone()) {
+				pending.addFirst(segment);
+			}
+			workers--;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Luồng tải trả đoạn, đoạn đã xong thì không còn thay đổi nên bỏ khỏi segments. Phải giữ lock
+	private boolean deactivate(Segment segment) {
+		boolean removed = active.remove(segment);
+		if (segment.isDone()) {
+			segments.remove(segment);
+		}
+		return removed;
+	}
+
+	// Số đoạn đang có luồng tải
+	int activeCount() {
+		lock.lock();
+		try {
+			return active.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Cắt nửa sau của đoạn đang tải còn nhiều byte nhất
+	private Segment steal() {
+		Segment largest = null;
+		for (Segment segment : active) {
+			if (largest == null || segment.remaining() > largest.remaining()) {
+				largest = segment;
+			}
+		}
+		if (largest == null) {
+			return null;
+		}
+		Segment stolen = largest.splitBack(nextId, MIN_SPLIT_SIZE, alignment);
+		if (stolen != null) {
+			nextId++;
+			segments.add(stolen);
+		}
+		return stolen;
+	}
+
+	void fail(Throwable cause) {
+		done.completeExceptionally(cause);
+	}
+
+	// Hoàn tất khi mọi đoạn đã nhận đủ byte và không còn luồng nào đang ghi
+	boolean isComplete() {
+		lock.lock();
+		try {
+			if (!active.isEmpty()) {
+				return false;
+			}
+			for (Segment segment : segments) {
+				if (!segment.isDone()) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	CompletableFuture<Void> completion() {
+		return done;
+	}
+}
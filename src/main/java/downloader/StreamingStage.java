@@ -0,0 +1,186 @@
+package downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bước xử lý đọc nội dung file như một InputStream (GZIPInputStream, TarArchiveInputStream...) trên luồng riêng.
+// accept() chép dữ liệu vào bộ đệm lấy từ BufferPool rồi đưa vào hàng đợi, bộ đệm được trả lại khi luồng xử lý
+// đọc xong. Khi hàng đợi đã giữ quá MAX_QUEUED_BYTES, isBacklogged() báo cho ContentPipeline ngừng đưa dữ liệu
+// trên luồng tải (luồng tải không phải chờ), phần đó được đọc lại từ file khi luồng xử lý đã bắt kịp.
+abstract class StreamingStage implements PipelineStage {
+	private static final long MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+	private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+	private static final AtomicInteger THREADS = new AtomicInteger();
+
+	private final BufferPool pool = BufferPool.getInstance();
+	private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+	// số byte đang nằm trong hàng đợi (kể cả khối đang được đọc dở)
+	private final AtomicLong queuedBytes = new AtomicLong();
+	private final Thread worker;
+	private volatile Throwable failure;
+	private volatile boolean aborted;
+
+	StreamingStage() {
+		worker = new Thread(this::run, "pipeline-" + THREADS.incrementAndGet());
+		worker.setDaemon(true);
+	}
+
+	// Đọc in đến hết, chạy trên luồng riêng của stage
+	protected abstract void process(InputStream in) throws IOException;
+
+	private void run() {
+		try (InputStream in = new QueueInputStream()) {
+			process(in);
+			// phần còn lại (ví dụ dữ liệu sau cuối file nén) vẫn phải đọc hết để finish() không bị chặn
+			byte[] skip = new byte[8192];
+			while (in.read(skip) >= 0) {
+			}
+		} catch (Throwable e) {
+			failure = e;
+			// trả bộ đệm còn lại, accept()/finish() sẽ thấy lỗi
+			drain();
+		}
+	}
+
+	@Override
+	public boolean isBacklogged() {
+		return queuedBytes.get() >= MAX_QUEUED_BYTES;
+	}
+
+	@Override
+	public void accept(ByteBuffer data) throws IOException {
+		checkFailure();
+		while (data.hasRemaining()) {
+			// bộ đệm có thể nhỏ hơn phần còn lại khi BufferPool gần hết budget
+			ByteBuffer chunk = pool.acquire(data.remaining());
+			int n = Math.min(chunk.remaining(), data.remaining());
+			ByteBuffer slice = data.duplicate();
+			slice.limit(slice.position() + n);
+			chunk.put(slice);
+			chunk.flip();
+			data.position(data.position() + n);
+			put(chunk);
+		}
+	}
+
+	@Override
+	public void finish() throws IOException {
+		put(EOF);
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for " + worker.getName());
+		}
+		checkFailure();
+	}
+
+	@Override
+	public void abort() {
+		aborted = true;
+		if (worker.getState() != Thread.State.NEW) {
+			worker.interrupt();
+		} else {
+			drain();
+		}
+	}
+
+	// Gọi từ một luồng mỗi lúc (ContentPipeline giữ lock). Luồng xử lý chỉ chạy khi có dữ liệu,
+	// sau khi constructor của lớp con đã xong. Hàng đợi không giới hạn nên không bao giờ phải chờ
+	private void put(ByteBuffer chunk) {
+		if (worker.getState() == Thread.State.NEW && !aborted) {
+			worker.start();
+		}
+		queuedBytes.addAndGet(chunk.remaining());
+		queue.add(chunk);
+		if (failure != null || aborted && !worker.isAlive()) {
+			// luồng xử lý đã dừng, không còn ai trả bộ đệm này
+			drain();
+		}
+	}
+
+	private void release(ByteBuffer chunk) {
+		queuedBytes.addAndGet(-chunk.limit());
+		if (chunk != EOF) {
+			pool.release(chunk);
+		}
+	}
+
+	private void drain() {
+		List<ByteBuffer> chunks = new ArrayList<>();
+		queue.drainTo(chunks);
+		for (ByteBuffer chunk : chunks) {
+			release(chunk);
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable failure = this.failure;
+		if (failure instanceof IOException) {
+			throw new IOException(failure.getMessage(), failure);
+		}
+		if (failure != null) {
+			throw new IOException("Pipeline stage failed: " + failure, failure);
+		}
+	}
+
+	// Đọc các khối từ hàng đợi theo thứ tự, trả bộ đệm về BufferPool khi đã đọc hết
+	private class QueueInputStream extends InputStream {
+		private ByteBuffer current;
+		private boolean eof;
+
+		private boolean fill() throws IOException {
+			while (!eof && (current == null || !current.hasRemaining())) {
+				if (current != null) {
+					release(current);
+					current = null;
+				}
+				if (aborted) {
+					throw new InterruptedIOException("Download aborted");
+				}
+				try {
+					current = queue.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Download aborted");
+				}
+				eof = current == EOF;
+			}
+			return !eof;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? current.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, current.remaining());
+			current.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public void close() {
+			if (current != null) {
+				release(current);
+				current = null;
+			}
+		}
+	}
+}
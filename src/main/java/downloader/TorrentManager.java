@@ -0,0 +1,181 @@
+package downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.turn.ttorrent.client.Client;
+import com.turn.ttorrent.client.ConnectionHandler;
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.peer.SharingPeer;
+
+// Quản lí mọi torrent đang tải của chương trình:
+// - tiến trình và kết thúc được báo qua observer của Client (mỗi khi xong một piece hoặc đổi trạng thái),
+//   người gọi chờ completion() thay vì hỏi trạng thái định kỳ
+// - tốc độ tính trên cửa sổ SPEED_WINDOW gần nhất
+// - giới hạn tốc độ tải lên/xuống chung cho mọi torrent, đổi được khi đang tải, chia đều cho các torrent đang chạy
+// ttorrent 1.5 cần một Client (một cổng nghe trong khoảng 6881-6889 và các luồng riêng) cho mỗi torrent,
+// nên số torrent chạy cùng lúc bị giới hạn theo số cổng, các torrent thừa chờ đến lượt.
+class TorrentManager {
+	static final int MAX_ACTIVE = ConnectionHandler.PORT_RANGE_END - ConnectionHandler.PORT_RANGE_START + 1;
+	private static final long SPEED_WINDOW = 5000;
+	private static final TorrentManager INSTANCE = new TorrentManager();
+
+	private final Semaphore slots = new Semaphore(MAX_ACTIVE, true);
+	private final Set<Handle> active = new LinkedHashSet<>();
+	// bytes/s, 0 là không giới hạn
+	private long downloadRateLimit;
+	private long uploadRateLimit;
+
+	static TorrentManager getInstance() {
+		return INSTANCE;
+	}
+
+	// Bắt đầu tải torrentFile vào downloadDir, chờ nếu đã có MAX_ACTIVE torrent đang chạy.
+	// listener được gọi trên luồng của ttorrent mỗi khi có tiến triển
+	Handle start(File torrentFile, File downloadDir, ProgressListener listener) throws IOException, InterruptedException {
+		SharedTorrent torrent;
+		try {
+			torrent = SharedTorrent.fromFile(torrentFile, downloadDir);
+		} catch (java.security.NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		slots.acquire();
+		Handle handle;
+		try {
+			handle = new Handle(new Client(InetAddress.getLocalHost(), torrent), listener);
+		} catch (IOException | RuntimeException e) {
+			slots.release();
+			throw e;
+		}
+		synchronized (this) {
+			active.add(handle);
+			applyRateLimits();
+		}
+		handle.client.download();
+		return handle;
+	}
+
+	synchronized void setRateLimits(long downloadBytesPerSecond, long uploadBytesPerSecond) {
+		this.downloadRateLimit = downloadBytesPerSecond;
+		this.uploadRateLimit = uploadBytesPerSecond;
+		applyRateLimits();
+	}
+
+	synchronized int getActiveCount() {
+		return active.size();
+	}
+
+	private synchronized void finished(Handle handle) {
+		if (active.remove(handle)) {
+			slots.release();
+			applyRateLimits();
+		}
+	}
+
+	// ttorrent tính giới hạn theo KB/s, <= 0 là không giới hạn
+	private void applyRateLimits() {
+		for (Handle handle : active) {
+			handle.client.setMaxDownloadRate(share(downloadRateLimit));
+			handle.client.setMaxUploadRate(share(uploadRateLimit));
+		}
+	}
+
+	private double share(long bytesPerSecond) {
+		return bytesPerSecond > 0 ? Math.max(1, bytesPerSecond / 1024.0 / active.size()) : 0;
+	}
+
+	interface ProgressListener {
+		void progress(float completion, String state, double bytesPerSecond, double averageBytesPerSecond, int peers);
+	}
+
+	// Một torrent đang tải
+	class Handle {
+		private final Client client;
+		private final ProgressListener listener;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+		private final AtomicBoolean stopped = new AtomicBoolean();
+		private final long startNanos = System.nanoTime();
+		// các mốc (thời điểm ns, số byte đã tải) trong cửa sổ tính tốc độ
+		private final Deque<long[]> samples = new ArrayDeque<>();
+
+		private Handle(Client client, ProgressListener listener) {
+			this.client = client;
+			this.listener = listener;
+			client.addObserver((observable, arg) -> update());
+		}
+
+		private void update() {
+			Client.ClientState state = client.getState();
+			long now = System.nanoTime();
+			long downloaded = client.getTorrent().getDownloaded();
+			double speed;
+			synchronized (samples) {
+				samples.addLast(new long[] { now, downloaded });
+				// giữ lại một mốc cũ hơn cửa sổ để tốc độ tính trên đủ SPEED_WINDOW
+				while (samples.size() > 2) {
+					long[] first = samples.removeFirst();
+					if (now - samples.peekFirst()[0] <= SPEED_WINDOW * 1_000_000) {
+						samples.addFirst(first);
+						break;
+					}
+				}
+				long[] oldest = samples.peekFirst();
+				speed = now > oldest[0] ? (downloaded - oldest[1]) * 1e9 / (now - oldest[0]) : 0;
+			}
+			double elapsed = (now - startNanos) / 1e9;
+			listener.progress(client.getTorrent().getCompletion(), state.toString(), speed,
+					elapsed > 0 ? downloaded / elapsed : 0, connectedPeers());
+			switch (state) {
+			case SEEDING:
+			case DONE:
+				stop();
+				done.complete(null);
+				break;
+			case ERROR:
+				stop();
+				done.completeExceptionally(new IOException("Torrent " + client.getTorrent().getName() + " failed"));
+				break;
+			default:
+				break;
+			}
+		}
+
+		private int connectedPeers() {
+			int count = 0;
+			for (SharingPeer peer : client.getPeers()) {
+				if (peer.isConnected()) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		// Hoàn tất khi tải xong (không seed tiếp), lỗi nếu ttorrent báo ERROR hoặc bị hủy
+		CompletableFuture<Void> completion() {
+			return done;
+		}
+
+		void cancel() {
+			stop();
+			done.completeExceptionally(new IOException("Torrent download cancelled"));
+		}
+
+		private void stop() {
+			if (stopped.compareAndSet(false, true)) {
+				// stop() của ttorrent chờ luồng của client kết thúc (cổng nghe được đóng),
+				// không gọi được trên chính luồng đó (observer)
+				Thread stopper = new Thread(() -> {
+					client.stop();
+					finished(this);
+				}, "torrent-stop");
+				stopper.setDaemon(true);
+				stopper.start();
+			}
+		}
+	}
+}
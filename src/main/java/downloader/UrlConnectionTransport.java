@@ -0,0 +1,124 @@
+package downloader;
+
+import java.io.*;
+import java.net.*;
+
+// Kết nối bằng HttpURLConnection. Kết nối không bị disconnect() sau khi dùng
+// mà chỉ đóng stream, để JDK giữ lại socket (keep-alive) cho request sau tới cùng host.
+class UrlConnectionTransport implements HttpTransport {
+	private static final int MAX_REDIRECTS = 5;
+	private static final UrlConnectionTransport INSTANCE = new UrlConnectionTransport();
+
+	static UrlConnectionTransport getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public RemoteFile probe(URL url) throws IOException {
+		return toRemoteFile(openConnection(url, 0, 0));
+	}
+
+	@Override
+	public RemoteFile probeIfModified(URL url, String etag, String lastModified) throws IOException {
+		HttpURLConnection connection = openConnection(url, 0, 0, "If-None-Match", etag, "If-Modified-Since",
+				lastModified);
+		if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			connection.getInputStream().close();
+			return null;
+		}
+		return toRemoteFile(connection);
+	}
+
+	private static RemoteFile toRemoteFile(HttpURLConnection connection) throws IOException {
+		int status = connection.getResponseCode();
+		boolean empty = RemoteFile.isEmptyFileResponse(status, connection.getHeaderField("Content-Range"));
+		if (status >= 400 && !empty) {
+			// trang lỗi không phải là file
+			connection.disconnect();
+			throw new HttpStatusException(status, "Server returned HTTP " + status + " for " + connection.getURL());
+		}
+		long size;
+		if (empty) {
+			size = 0;
+		} else if (status == HttpURLConnection.HTTP_PARTIAL) {
+			size = RemoteFile.parseContentRangeTotal(connection.getHeaderField("Content-Range"));
+		} else {
+			size = connection.getContentLengthLong();
+		}
+		boolean acceptRanges = status == HttpURLConnection.HTTP_PARTIAL || empty
+				|| "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+		RemoteFile remote = new RemoteFile(connection.getURL(), size, acceptRanges, connection.getHeaderField("ETag"),
+				connection.getHeaderField("Last-Modified"), connection.getHeaderField("Content-Disposition"),
+				connection.getContentType(),
+				Checksum.fromHeaders(connection.getHeaderField("Digest"), connection.getHeaderField("Repr-Digest"),
+						status == HttpURLConnection.HTTP_OK ? connection.getHeaderField("Content-MD5") : null));
+		if (status == HttpURLConnection.HTTP_PARTIAL) {
+			// đọc hết 1 byte để kết nối được dùng lại
+			try (InputStream in = connection.getInputStream()) {
+				while (in.read() != -1) {
+				}
+			}
+		} else {
+			// server trả cả file, không đọc tiếp
+			connection.disconnect();
+		}
+		return remote;
+	}
+
+	@Override
+	public InputStream openStream(URL url, long start, long end, String ifRange) throws IOException {
+		HttpURLConnection connection = openConnection(url, start, end, "If-Range", ifRange);
+		int status = connection.getResponseCode();
+		if (status >= 400) {
+			connection.disconnect();
+			throw new HttpStatusException(status, "Server returned HTTP " + status + " for " + url);
+		}
+		if (ifRange != null && (start > 0 || end >= 0) && status != HttpURLConnection.HTTP_PARTIAL) {
+			// If-Range không khớp: server trả cả file mới
+			connection.disconnect();
+			throw new RemoteFileChangedException("File changed on server: " + url);
+		}
+		if (start > 0 && status != HttpURLConnection.HTTP_PARTIAL) {
+			connection.disconnect();
+			throw new IOException("Server ignored Range request for " + url);
+		}
+		return connection.getInputStream();
+	}
+
+	// Mở kết nối GET có header Range (nếu cần), tự chuyển hướng kể cả từ http sang https.
+	// headers: các cặp tên, giá trị; giá trị null thì bỏ qua header đó
+	private HttpURLConnection openConnection(URL url, long start, long end, String... headers) throws IOException {
+		HttpURLConnection connection = newConnection(url, start, end, headers);
+		int redirectCount = 0;
+		while (redirectCount < MAX_REDIRECTS) {
+			int status = connection.getResponseCode();
+			if (status != HttpURLConnection.HTTP_MOVED_TEMP && status != HttpURLConnection.HTTP_MOVED_PERM
+					&& status != HttpURLConnection.HTTP_SEE_OTHER) {
+				break;
+			}
+			String newUrl = connection.getHeaderField("Location");
+			connection.disconnect();
+			connection = newConnection(new URL(url, newUrl), start, end, headers);
+
+			redirectCount++;
+		}
+		return connection;
+	}
+
+	private static HttpURLConnection newConnection(URL url, long start, long end, String... headers)
+			throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("GET");
+		connection.setRequestProperty("User-Agent", "Mozilla/5.0");
+		connection.setInstanceFollowRedirects(true);
+		if (start > 0 || end >= 0) {
+			connection.setRequestProperty("Range", "bytes=" + start + "-" + (end >= 0 ? end : ""));
+		}
+		for (int i = 0; i < headers.length; i += 2) {
+			if (headers[i + 1] != null) {
+				connection.setRequestProperty(headers[i], headers[i + 1]);
+			}
+		}
+		return connection;
+	}
+}
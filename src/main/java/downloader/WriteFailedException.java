@@ -0,0 +1,13 @@
+package downloader;
+
+import java.io.IOException;
+
+// Lỗi khi ghi dữ liệu đã nhận xuống file đích (đầy ổ đĩa, lỗi I/O cục bộ...),
+// không phải lỗi mạng nên thử lại (kể cả qua mirror khác) cũng không giải quyết được
+class WriteFailedException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	WriteFailedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,89 @@
+package downloader;
+
+import static downloader.RangeSetTest.assertRanges;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloadJournalTest {
+	private static final String URL = "http://example.com/file.bin";
+	private static final long SIZE = 1000;
+	private static final String ETAG = "\"abc\"";
+
+	@TempDir
+	Path dir;
+	private File file;
+
+	@BeforeEach
+	void createFile() throws IOException {
+		file = dir.resolve("file.bin").toFile();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(SIZE);
+		}
+	}
+
+	private DownloadJournal newJournal() {
+		return new DownloadJournal(file, URL, SIZE, ETAG, null, Long.MAX_VALUE);
+	}
+
+	@Test
+	void roundTrip() throws IOException {
+		DownloadJournal journal = newJournal();
+		journal.markCompleted(0, 100);
+		journal.markCompleted(200, 300);
+		journal.markCompleted(100, 150);
+		journal.flush();
+
+		DownloadJournal resumed = DownloadJournal.resume(file, URL, SIZE, ETAG, null, Long.MAX_VALUE);
+		assertNotNull(resumed);
+		assertRanges(resumed.completedRanges(), new long[] { 0, 150 }, new long[] { 200, 300 });
+		assertEquals(250, resumed.completedBytes());
+		assertRanges(resumed.missingRanges(), new long[] { 150, 199 }, new long[] { 300, 999 });
+	}
+
+	@Test
+	void emptyJournalResumesWithNothingCompleted() throws IOException {
+		newJournal().flush();
+		DownloadJournal resumed = DownloadJournal.resume(file, URL, SIZE, ETAG, null, Long.MAX_VALUE);
+		assertNotNull(resumed);
+		assertEquals(0, resumed.completedBytes());
+		assertRanges(resumed.missingRanges(), new long[] { 0, 999 });
+	}
+
+	@Test
+	void resumeRejectsChangedServerFile() throws IOException {
+		DownloadJournal journal = newJournal();
+		journal.markCompleted(0, 100);
+		journal.flush();
+		assertNull(DownloadJournal.resume(file, URL, SIZE, "\"other\"", null, Long.MAX_VALUE));
+		assertNull(DownloadJournal.resume(file, URL + "?v=2", SIZE, ETAG, null, Long.MAX_VALUE));
+		assertNull(DownloadJournal.resume(file, URL, SIZE + 1, ETAG, null, Long.MAX_VALUE));
+		// không có validator thì không biết file trên server có đổi hay không
+		assertNull(DownloadJournal.resume(file, URL, SIZE, null, null, Long.MAX_VALUE));
+	}
+
+	@Test
+	void nothingIsWrittenBeforeFlush() {
+		newJournal().markCompleted(0, 100);
+		assertFalse(DownloadJournal.journalFileFor(file).exists());
+	}
+
+	@Test
+	void deleteRemovesJournalAndIgnoresLaterWrites() throws IOException {
+		DownloadJournal journal = newJournal();
+		journal.markCompleted(0, 100);
+		journal.flush();
+		journal.delete();
+		assertFalse(DownloadJournal.journalFileFor(file).exists());
+		journal.markCompleted(100, 200);
+		journal.flush();
+		assertFalse(DownloadJournal.journalFileFor(file).exists());
+	}
+}
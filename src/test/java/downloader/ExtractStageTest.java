@@ -0,0 +1,85 @@
+package downloader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExtractStageTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	void extractsZip() throws IOException {
+		Path target = dir.resolve("out");
+		ExtractStage stage = new ExtractStage(ExtractStage.Format.ZIP, target.toFile(), null);
+		run(stage, zip("a/b.txt", "hello"));
+		assertEquals("hello", new String(Files.readAllBytes(target.resolve("a/b.txt")), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void rejectsZipEntryOutsideTarget() throws IOException {
+		ExtractStage stage = new ExtractStage(ExtractStage.Format.ZIP, dir.resolve("out").toFile(), null);
+		IOException e = assertThrows(IOException.class, () -> run(stage, zip("../evil.txt", "evil")));
+		assertTrue(e.getMessage().contains("outside target directory"), e.getMessage());
+		assertFalse(Files.exists(dir.resolve("evil.txt")));
+	}
+
+	@Test
+	void rejectsNestedTarEntryOutsideTarget() throws IOException {
+		ExtractStage stage = new ExtractStage(ExtractStage.Format.TAR, dir.resolve("out").toFile(), null);
+		IOException e = assertThrows(IOException.class, () -> run(stage, tar("a/../../evil.txt", "evil")));
+		assertTrue(e.getMessage().contains("outside target directory"), e.getMessage());
+		assertFalse(Files.exists(dir.resolve("evil.txt")));
+	}
+
+	@Test
+	void rejectsAbsoluteZipEntry() throws IOException {
+		Path outside = dir.resolve("abs.txt");
+		ExtractStage stage = new ExtractStage(ExtractStage.Format.ZIP, dir.resolve("out").toFile(), null);
+		assertThrows(IOException.class, () -> run(stage, zip(outside.toString(), "evil")));
+		assertFalse(Files.exists(outside));
+	}
+
+	// Đưa dữ liệu theo từng khối nhỏ như khi đang tải
+	private static void run(ExtractStage stage, byte[] data) throws IOException {
+		for (int offset = 0; offset < data.length; offset += 100) {
+			stage.accept(ByteBuffer.wrap(data, offset, Math.min(100, data.length - offset)));
+		}
+		stage.finish();
+	}
+
+	private static byte[] zip(String name, String content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(new ZipEntry(name));
+			zip.write(content.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] tar(String name, String content) throws IOException {
+		byte[] data = content.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(bytes)) {
+			TarArchiveEntry entry = new TarArchiveEntry(name);
+			entry.setSize(data.length);
+			tar.putArchiveEntry(entry);
+			tar.write(data);
+			tar.closeArchiveEntry();
+		}
+		return bytes.toByteArray();
+	}
+}
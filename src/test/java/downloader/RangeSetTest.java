@@ -0,0 +1,87 @@
+package downloader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RangeSetTest {
+
+	@Test
+	void mergesOverlappingAndAdjacentRanges() {
+		RangeSet set = new RangeSet();
+		set.add(0, 10);
+		set.add(20, 30);
+		set.add(10, 20);
+		assertRanges(set.ranges(), new long[] { 0, 30 });
+		assertEquals(30, set.totalBytes());
+	}
+
+	@Test
+	void addSpanningSeveralRangesMergesThemAll() {
+		RangeSet set = new RangeSet();
+		set.add(0, 5);
+		set.add(10, 15);
+		set.add(20, 25);
+		set.add(40, 50);
+		set.add(3, 22);
+		assertRanges(set.ranges(), new long[] { 0, 25 }, new long[] { 40, 50 });
+		assertEquals(35, set.totalBytes());
+	}
+
+	@Test
+	void ignoresEmptyRanges() {
+		RangeSet set = new RangeSet();
+		set.add(5, 5);
+		set.add(7, 3);
+		assertTrue(set.ranges().isEmpty());
+		assertEquals(0, set.totalBytes());
+	}
+
+	@Test
+	void endOfRangeContaining() {
+		RangeSet set = new RangeSet();
+		set.add(10, 20);
+		assertEquals(20, set.endOfRangeContaining(10));
+		assertEquals(20, set.endOfRangeContaining(15));
+		// end không thuộc khoảng
+		assertEquals(20, set.endOfRangeContaining(20));
+		assertEquals(5, set.endOfRangeContaining(5));
+		assertEquals(25, set.endOfRangeContaining(25));
+	}
+
+	@Test
+	void contains() {
+		RangeSet set = new RangeSet();
+		set.add(10, 20);
+		assertTrue(set.contains(10, 20));
+		assertTrue(set.contains(12, 18));
+		assertFalse(set.contains(10, 21));
+		assertFalse(set.contains(5, 15));
+		assertTrue(set.contains(3, 3));
+	}
+
+	// gaps trả về khoảng bao gồm end, khác với ranges
+	@Test
+	void gapsAreInclusive() {
+		RangeSet set = new RangeSet();
+		set.add(10, 20);
+		set.add(30, 40);
+		assertRanges(set.gaps(50), new long[] { 0, 9 }, new long[] { 20, 29 }, new long[] { 40, 49 });
+		assertEquals(2, set.gaps(40).size());
+	}
+
+	@Test
+	void gapsOfEmptySetIsWholeFile() {
+		assertRanges(new RangeSet().gaps(100), new long[] { 0, 99 });
+		assertTrue(new RangeSet().gaps(0).isEmpty());
+	}
+
+	static void assertRanges(List<long[]> actual, long[]... expected) {
+		assertEquals(expected.length, actual.size(), "number of ranges");
+		for (int i = 0; i < expected.length; i++) {
+			assertArrayEquals(expected[i], actual.get(i), "range " + i);
+		}
+	}
+}
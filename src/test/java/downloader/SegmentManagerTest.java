@@ -0,0 +1,124 @@
+package downloader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Không chạy luồng tải thật: launcher chỉ đếm số lần được gọi, test tự gọi next() như một luồng tải
+class SegmentManagerTest {
+	private static final long MB = 1024 * 1024;
+
+	private final List<SegmentManager> launched = new ArrayList<>();
+	private final SegmentManager manager = new SegmentManager(launched::add);
+
+	@Test
+	void splitEvenlyCoversWholeFile() {
+		long size = 10 * MB + 1;
+		manager.splitEvenly(size, 4);
+		manager.setTargetWorkers(4);
+		assertEquals(4, launched.size());
+		assertSame(manager, launched.get(0));
+		long expectedStart = 0;
+		for (int i = 0; i < 4; i++) {
+			Segment segment = manager.next(null);
+			assertNotNull(segment);
+			assertEquals(expectedStart, segment.getStart());
+			expectedStart = segment.getEnd() + 1;
+		}
+		assertEquals(size, expectedStart);
+	}
+
+	@Test
+	void splitEvenlyRoundsToAlignment() {
+		manager.setAlignment(MB);
+		manager.splitEvenly(10 * MB, 3);
+		manager.setTargetWorkers(3);
+		for (int i = 0; i < 3; i++) {
+			Segment segment = manager.next(null);
+			assertEquals(0, segment.getStart() % MB);
+		}
+	}
+
+	@Test
+	void idleWorkerStealsBackHalfOfLargestSegment() {
+		manager.splitEvenly(8 * MB, 1);
+		manager.setTargetWorkers(2);
+		Segment first = manager.next(null);
+		Segment stolen = manager.next(null);
+		assertNotNull(stolen);
+		assertEquals(first.getEnd() + 1, stolen.getStart());
+		assertEquals(8 * MB - 1, stolen.getEnd());
+		assertEquals(4 * MB, stolen.length());
+		assertEquals(2, manager.activeCount());
+	}
+
+	@Test
+	void smallSegmentsAreNotSplit() {
+		manager.splitEvenly(SegmentManager.MIN_SPLIT_SIZE, 1);
+		manager.setTargetWorkers(2);
+		assertNotNull(manager.next(null));
+		assertNull(manager.next(null));
+	}
+
+	@Test
+	void completesWhenEverySegmentIsDone() {
+		manager.splitEvenly(2 * MB, 2);
+		manager.setTargetWorkers(2);
+		Segment a = manager.next(null);
+		Segment b = manager.next(null);
+		a.claim((int) a.remaining());
+		// còn quá ít để cắt b, luồng này dừng
+		assertNull(manager.next(a));
+		assertFalse(manager.completion().isDone());
+		b.claim((int) b.remaining());
+		assertNull(manager.next(b));
+		assertTrue(manager.completion().isDone());
+		assertTrue(manager.isComplete());
+	}
+
+	@Test
+	void abandonedSegmentIsResumedFromItsPosition() {
+		manager.splitEvenly(4 * MB, 1);
+		manager.setTargetWorkers(1);
+		Segment segment = manager.next(null);
+		segment.claim(1000);
+		manager.abandon(segment);
+		assertEquals(0, manager.activeCount());
+		// luồng bị hủy không còn được tính nên có thể khởi chạy luồng mới
+		manager.setTargetWorkers(1);
+		assertEquals(2, launched.size());
+		Segment resumed = manager.next(null);
+		assertSame(segment, resumed);
+		assertEquals(1000, resumed.getPosition());
+	}
+
+	@Test
+	void lastWorkerCannotRetire() {
+		manager.splitEvenly(4 * MB, 2);
+		manager.setTargetWorkers(2);
+		Segment a = manager.next(null);
+		Segment b = manager.next(null);
+		assertTrue(manager.retire(a));
+		assertFalse(manager.retire(b));
+		// phần còn lại của a được trả về hàng đợi
+		assertSame(a, manager.next(null));
+	}
+
+	@Test
+	void refetchLaunchesWorkerBelowTarget() {
+		manager.splitEvenly(MB, 1);
+		manager.setTargetWorkers(2);
+		Segment segment = manager.next(null);
+		segment.claim((int) segment.remaining());
+		assertNull(manager.next(null));
+		int before = launched.size();
+		manager.refetch(0, 1023);
+		assertEquals(before + 1, launched.size());
+		Segment refetch = manager.next(null);
+		assertEquals(0, refetch.getStart());
+		assertEquals(1023, refetch.getEnd());
+	}
+}